@@ -2,8 +2,10 @@ package com.paulyang.ecommerce.config;
 
 import com.paulyang.ecommerce.utils.LoginInterceptor;
 import com.paulyang.ecommerce.utils.RefreshTokenInterceptor;
+import com.paulyang.ecommerce.utils.RevokedTokenInterceptor;
+import com.paulyang.ecommerce.utils.SessionTokens;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -13,7 +15,19 @@ import javax.annotation.Resource;
 public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SessionTokens sessionTokens;
+
+    /**
+     * paths where a logged out token is rejected even if it still resolves to a user
+     */
+    @Value("${app.session.sensitive-paths:/voucher-order/**}")
+    private String[] sensitivePaths;
+
+    /**
+     * users allowed on @Auth(ADMIN) handlers
+     */
+    @Value("${app.admin.user-ids:}")
+    private Long[] adminUserIds;
 
     /**
      * Interceptor execution order:
@@ -25,17 +39,11 @@ public class MvcConfig implements WebMvcConfigurer {
      */
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
-        registry.addInterceptor(new LoginInterceptor())
-                .excludePathPatterns(
-                        "/shop/**",
-                        "/voucher/**",
-                        "/shop-type/**",
-                        "/upload/**",
-                        "/blog/hot",
-                        "/user/code",
-                        "/user/login"
-                ).order(1);
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+//        which handlers need the user is declared on them with @Auth
+        registry.addInterceptor(new LoginInterceptor(adminUserIds)).order(1);
+        registry.addInterceptor(new RefreshTokenInterceptor(sessionTokens))
                 .addPathPatterns("/**").order(0);
+        registry.addInterceptor(new RevokedTokenInterceptor(sessionTokens))
+                .addPathPatterns(sensitivePaths).order(2);
     }
 }
@@ -15,16 +15,49 @@ public class RedisProperties {
     @Data
     public static class RedisKeys {
         private String loginCode = "login:code:";
+        private String loginCodePhoneLimit = "limit:code:phone:";
+        private String loginCodeIpLimit = "limit:code:ip:";
         private String loginUser = "login:token:";
+        private String sessionInvalidate = "session:invalidate";
+        private String sessionRevoked = "session:revoked";
         private String cacheShop = "cache:shop:";
         private String cacheShopType = "cache:shopType";
+        private String cacheShopGeo = "cache:shop:geo:";
+        private String cacheBlog = "cache:blog:";
+        private String cacheUser = "cache:user:";
+        private String cacheUserPhone = "cache:user-phone:";
+        private String cacheUserInfo = "cache:user-info:";
+        private String cacheComment = "cache:comment:";
         private String lockShop = "lock:shop:";
         private String lockOrder = "lock:order:";
         private String seckillStock = "seckill:stock:";
         private String blogLiked = "blog:liked:";
+        private String blogLikeDelta = "blog:like-delta";
+        private String blogLikers = "blog:likers:";
+        private String blogLikeBloom = "blog:like-bloom:";
+        private String blogHot = "blog:hot";
+        private String blogVersion = "blog:ver:";
+        private String blogComments = "blog:comments:";
+        private String blogCommentDelta = "blog:comment-delta";
         private String feed = "feed:";
+        private String feedStream = "stream.feed";
+        private String feedFanout = "feed:fanout:";
+        private String feedOutbox = "feed:outbox:";
+        private String feedBigAuthor = "feed:big-authors";
+        private String feedActive = "feed:active";
+        private String follows = "follows:";
+        private String followsVersion = "follows:ver:";
+        private String followerCount = "followers:count:";
+        private String followers = "followers:";
+        private String followersVersion = "followers:ver:";
         private String shopGeo = "shop:geo:";
+        private String shopGeoVersion = "shop:geo:ver:";
+        private String shopRank = "shop:rank:";
+        private String shopRankVersion = "shop:rank:ver:";
         private String userSign = "sign:";
+        private String signDay = "sign:day:";
+        private String activeDay = "active:day:";
+        private String userLikes = "user:likes:";
     }
     
     @Data
@@ -33,6 +66,13 @@ public class RedisProperties {
         private Long loginUser = 36000L;
         private Long cacheNull = 2L;
         private Long cacheShop = 30L;
+        private Long cacheShopGeo = 60L;
+        private Long cacheBlog = 30L;
+        private Long cacheUser = 30L;
+        private Long cacheUserPhone = 1440L;
+        private Long cacheUserInfo = 30L;
+        private Long cacheComment = 30L;
+        private Long followerCount = 30L;
         private Long lockShop = 10L;
     }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package com.paulyang.ecommerce.controller;
+
+import com.paulyang.ecommerce.dto.Result;
+import com.paulyang.ecommerce.service.IAnalyticsService;
+import com.paulyang.ecommerce.utils.Auth;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * daily active and check in counts, type is active or sign, for admins only
+ */
+@Auth(Auth.Level.ADMIN)
+@RestController
+@RequestMapping("/analytics")
+public class AnalyticsController {
+
+    @Resource
+    private IAnalyticsService analyticsService;
+
+    @GetMapping("/day")
+    public Result countDay(@RequestParam(value = "type", defaultValue = "active") String type,
+                           @RequestParam("date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return analyticsService.countDay(type, date);
+    }
+
+    @GetMapping("/range")
+    public Result countRange(@RequestParam(value = "type", defaultValue = "active") String type,
+                             @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                             @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return analyticsService.countRange(type, from, to);
+    }
+
+    @GetMapping("/retention")
+    public Result retention(@RequestParam(value = "type", defaultValue = "active") String type,
+                            @RequestParam("cohort") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate cohort,
+                            @RequestParam(value = "days", defaultValue = "1,7,30") List<Integer> days) {
+        return analyticsService.retention(type, cohort, days);
+    }
+
+    @PostMapping("/export")
+    public Result exportDay(@RequestParam(value = "type", defaultValue = "active") String type,
+                            @RequestParam("date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return analyticsService.exportDay(type, date);
+    }
+}
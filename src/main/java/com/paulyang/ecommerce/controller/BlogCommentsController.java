@@ -1,9 +1,12 @@
 package com.paulyang.ecommerce.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.paulyang.ecommerce.dto.Result;
+import com.paulyang.ecommerce.entity.BlogComments;
+import com.paulyang.ecommerce.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * front controller
@@ -12,4 +15,25 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    /**
+     * comments of a blog, newest first
+     *
+     * @param blogId
+     * @param lastId id of the last comment of the previous page, absent for the first page
+     * @return
+     */
+    @GetMapping("/of/blog")
+    public Result queryBlogComments(
+            @RequestParam("blogId") Long blogId,
+            @RequestParam(value = "lastId", required = false) Long lastId) {
+        return blogCommentsService.queryBlogComments(blogId, lastId);
+    }
 }
@@ -8,6 +8,7 @@ import com.paulyang.ecommerce.entity.Blog;
 import com.paulyang.ecommerce.entity.User;
 import com.paulyang.ecommerce.service.IBlogService;
 import com.paulyang.ecommerce.service.IUserService;
+import com.paulyang.ecommerce.utils.Auth;
 import com.paulyang.ecommerce.utils.SystemConstants;
 import com.paulyang.ecommerce.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
@@ -30,6 +31,11 @@ public class BlogController {
         return blogService.saveBlog(blog);
     }
 
+    @PutMapping
+    public Result updateBlog(@RequestBody Blog blog) {
+        return blogService.updateBlog(blog);
+    }
+
     @PutMapping("/like/{id}")
     public Result likeBlog(@PathVariable("id") Long id) {
         // modify the number of likes
@@ -48,6 +54,7 @@ public class BlogController {
         return Result.ok(records);
     }
 
+    @Auth(Auth.Level.OPTIONAL)
     @GetMapping("/hot")
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
        return blogService.queryHotBlog(current);
@@ -31,4 +31,9 @@ public class FollowController {
         return followService.followCommons(id);
     }
 
+    @GetMapping("/count/{id}")
+    public Result queryFollowerCount(@PathVariable("id") Long id) {
+        return followService.queryFollowerCount(id);
+    }
+
 }
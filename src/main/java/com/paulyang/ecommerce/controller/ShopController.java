@@ -7,6 +7,7 @@ import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.entity.Shop;
 import com.paulyang.ecommerce.service.IShopService;
 import com.paulyang.ecommerce.utils.SystemConstants;
+import com.paulyang.ecommerce.utils.Auth;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -14,6 +15,7 @@ import javax.annotation.Resource;
 /**
  * front controller
  */
+@Auth(Auth.Level.NONE)
 @RestController
 @RequestMapping("/shop")
 public class ShopController {
@@ -40,10 +42,7 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // write to database
-        shopService.save(shop);
-        // return store id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -58,6 +57,18 @@ public class ShopController {
         return shopService.update(shop);
     }
 
+    /**
+     * delete store information
+     *
+     * @param id store id
+     * @return Result indicating success or failure
+     */
+    @Auth(Auth.Level.ADMIN)
+    @DeleteMapping("/{id}")
+    public Result deleteShop(@PathVariable("id") Long id) {
+        return shopService.deleteShop(id);
+    }
+
     /**
      * Query store information by page according to store type
      *
@@ -76,6 +87,25 @@ public class ShopController {
         return shopService.queryShopByType(typeId, current, sortBy, x, y);
     }
 
+    /**
+     * Query nearby stores of a type, nearest first, with cursor paging
+     *
+     * @param typeId shop type
+     * @param x      longitude
+     * @param y      latitude
+     * @param cursor cursor of the previous page, omitted for the first page
+     * @return store list and the cursor of the next page
+     */
+    @GetMapping("/of/type/nearby")
+    public Result queryShopNearby(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopNearby(typeId, x, y, cursor);
+    }
+
     /**
      * Query store information by page based on store name keywords
      *
@@ -4,6 +4,7 @@ package com.paulyang.ecommerce.controller;
 import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.entity.ShopType;
 import com.paulyang.ecommerce.service.IShopTypeService;
+import com.paulyang.ecommerce.utils.Auth;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -14,6 +15,7 @@ import java.util.List;
 /**
  * front controller
  */
+@Auth(Auth.Level.NONE)
 @RestController
 @RequestMapping("/shop-type")
 public class ShopTypeController {
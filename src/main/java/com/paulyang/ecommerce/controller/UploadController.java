@@ -4,6 +4,7 @@ import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.StrUtil;
 import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.utils.SystemConstants;
+import com.paulyang.ecommerce.utils.Auth;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -16,6 +17,7 @@ import java.util.UUID;
  * files upload
  */
 @Slf4j
+@Auth(Auth.Level.NONE)
 @RestController
 @RequestMapping("upload")
 public class UploadController {
@@ -1,20 +1,22 @@
 package com.paulyang.ecommerce.controller;
 
 
-import cn.hutool.core.bean.BeanUtil;
 import com.paulyang.ecommerce.dto.LoginFormDTO;
 import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.dto.UserDTO;
-import com.paulyang.ecommerce.entity.User;
 import com.paulyang.ecommerce.entity.UserInfo;
 import com.paulyang.ecommerce.service.IUserInfoService;
 import com.paulyang.ecommerce.service.IUserService;
+import com.paulyang.ecommerce.utils.Auth;
 import com.paulyang.ecommerce.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * front controller
@@ -33,10 +35,11 @@ public class UserController {
     /**
      * Send the phone verification code
      */
+    @Auth(Auth.Level.NONE)
     @PostMapping("code")
-    public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
+    public Result sendCode(@RequestParam("phone") String phone, HttpServletRequest request) {
         // TODO send an sms verification code and save it
-        return userService.sendCode(phone, session);
+        return userService.sendCode(phone, request.getRemoteAddr());
 //        return Result.fail("Feature not implemented");
     }
 
@@ -45,6 +48,7 @@ public class UserController {
      *
      * @param loginForm Login parameters, including mobile phone number, verification code, or mobile phone number and password
      */
+    @Auth(Auth.Level.NONE)
     @PostMapping("/login")
     public Result login(@RequestBody LoginFormDTO loginForm, HttpSession session) {
         // TODO implement the login function
@@ -57,9 +61,8 @@ public class UserController {
      * @return null
      */
     @PostMapping("/logout")
-    public Result logout() {
-        // TODO Implement the logout function
-        return Result.fail("the function is not complete");
+    public Result logout(@RequestHeader("authorization") String token) {
+        return userService.logout(token);
     }
 
     @GetMapping("/me")
@@ -69,29 +72,35 @@ public class UserController {
         return Result.ok(user);
     }
 
+    @PutMapping("/me")
+    public Result updateProfile(@RequestBody UserDTO profile, @RequestHeader("authorization") String token) {
+        return userService.updateProfile(profile, token);
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId) {
-        // find out more
-        UserInfo info = userInfoService.getById(userId);
-        if (info == null) {
+        // find out more, through the user info cache
+        List<UserInfo> infos = userInfoService.queryUserInfos(Collections.singletonList(userId));
+        if (infos.isEmpty()) {
             // There are no details, it should be the first time to check the details
             return Result.ok();
         }
-        info.setCreateTime(null);
-        info.setUpdateTime(null);
         // return
-        return Result.ok(info);
+        return Result.ok(infos.get(0));
+    }
+
+    @PutMapping("/info")
+    public Result updateInfo(@RequestBody UserInfo info) {
+        return userInfoService.updateInfo(info);
     }
 
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId) {
-        User user = userService.getById(userId);
-        if (user == null) {
+        List<UserDTO> users = userService.queryUserDTOs(Collections.singletonList(userId));
+        if (users.isEmpty()) {
             return Result.ok();
         }
-
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        return Result.ok(userDTO);
+        return Result.ok(users.get(0));
     }
 
     @PostMapping("sign")
@@ -103,4 +112,20 @@ public class UserController {
     public Result signCount() {
         return userService.signCount();
     }
+
+    @GetMapping("/sign/stats")
+    public Result signStats() {
+        return userService.signStats();
+    }
+
+    @Auth(Auth.Level.ADMIN)
+    @GetMapping("/sign/stats/batch")
+    public Result signStatsBatch(@RequestParam("ids") List<Long> ids) {
+        return userService.signStatsBatch(ids);
+    }
+
+    @GetMapping("/sign/calendar")
+    public Result signCalendar(@RequestParam(value = "year", required = false) Integer year) {
+        return userService.signCalendar(year);
+    }
 }
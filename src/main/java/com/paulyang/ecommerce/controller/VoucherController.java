@@ -4,6 +4,7 @@ package com.paulyang.ecommerce.controller;
 import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.entity.Voucher;
 import com.paulyang.ecommerce.service.IVoucherService;
+import com.paulyang.ecommerce.utils.Auth;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -11,6 +12,7 @@ import javax.annotation.Resource;
 /**
  * front controller
  */
+@Auth(Auth.Level.NONE)
 @RestController
 @RequestMapping("/voucher")
 public class VoucherController {
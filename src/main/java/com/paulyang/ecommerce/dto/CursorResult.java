@@ -0,0 +1,14 @@
+package com.paulyang.ecommerce.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class CursorResult {
+    private List<?> list;
+    /**
+     * opaque position to pass back for the next page, null when there are no more results
+     */
+    private String cursor;
+}
@@ -0,0 +1,20 @@
+package com.paulyang.ecommerce.dto;
+
+import lombok.Data;
+
+@Data
+public class SignStats {
+    private Long userId;
+    /**
+     * days signed this month
+     */
+    private Integer monthCount;
+    /**
+     * consecutive days signed up to today, across months
+     */
+    private Integer currentStreak;
+    /**
+     * longest run of consecutive days signed in the last SIGN_STATS_MONTHS months
+     */
+    private Integer longestStreak;
+}
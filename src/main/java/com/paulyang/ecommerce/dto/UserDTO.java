@@ -2,9 +2,44 @@ package com.paulyang.ecommerce.dto;
 
 import lombok.Data;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Data
 public class UserDTO {
     private Long id;
     private String nickName;
     private String icon;
+
+    /**
+     * @return the fields of the login:token hash of the user, null fields left out
+     */
+    public Map<String, String> toHash() {
+        Map<String, String> hash = new HashMap<>(4);
+        if (id != null) {
+            hash.put("id", id.toString());
+        }
+        if (nickName != null) {
+            hash.put("nickName", nickName);
+        }
+        if (icon != null) {
+            hash.put("icon", icon);
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash the fields of a login:token hash
+     * @return the user of the hash
+     */
+    public static UserDTO fromHash(Map<?, ?> hash) {
+        UserDTO user = new UserDTO();
+        Object id = hash.get("id");
+        user.setId(id == null ? null : Long.valueOf(id.toString()));
+        Object nickName = hash.get("nickName");
+        user.setNickName(nickName == null ? null : nickName.toString());
+        Object icon = hash.get("icon");
+        user.setIcon(icon == null ? null : icon.toString());
+        return user;
+    }
 }
@@ -1,6 +1,7 @@
 package com.paulyang.ecommerce.entity;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import lombok.Data;
@@ -29,6 +30,18 @@ public class BlogComments implements Serializable {
      */
     private Long userId;
 
+    /**
+     * user icon
+     */
+    @TableField(exist = false)
+    private String icon;
+
+    /**
+     * user name
+     */
+    @TableField(exist = false)
+    private String name;
+
     /**
      * discovery hotel id
      */
@@ -22,7 +22,7 @@ public class UserInfo implements Serializable {
     /**
      * primary key，user id
      */
-    @TableId(value = "user_id", type = IdType.AUTO)
+    @TableId(value = "user_id", type = IdType.INPUT)
     private Long userId;
 
     /**
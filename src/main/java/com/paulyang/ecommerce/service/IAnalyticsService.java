@@ -0,0 +1,20 @@
+package com.paulyang.ecommerce.service;
+
+import com.paulyang.ecommerce.dto.Result;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * service class of the daily activity bitmaps
+ */
+public interface IAnalyticsService {
+
+    Result countDay(String type, LocalDate day);
+
+    Result countRange(String type, LocalDate from, LocalDate to);
+
+    Result retention(String type, LocalDate cohort, List<Integer> days);
+
+    Result exportDay(String type, LocalDate day);
+}
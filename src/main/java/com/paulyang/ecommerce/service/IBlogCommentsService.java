@@ -1,5 +1,6 @@
 package com.paulyang.ecommerce.service;
 
+import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.entity.BlogComments;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -8,4 +9,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogCommentsService extends IService<BlogComments> {
 
+    Result saveComment(BlogComments comment);
+
+    Result queryBlogComments(Long blogId, Long lastId);
 }
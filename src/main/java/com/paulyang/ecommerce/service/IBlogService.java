@@ -4,6 +4,8 @@ import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * service class
  */
@@ -13,11 +15,15 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryBlogById(Long id);
 
+    List<Blog> queryBlogsByIds(List<Long> ids);
+
     Result likeBlog(Long id);
 
     Result queryBlogLikes(Long id);
 
     Result saveBlog(Blog blog);
 
+    Result updateBlog(Blog blog);
+
     Result queryBlogOfFollow(Long max, Integer offset);
 }
@@ -1,9 +1,12 @@
 package com.paulyang.ecommerce.service;
 
+import com.paulyang.ecommerce.dto.CursorResult;
 import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * service class
  */
@@ -14,4 +17,22 @@ public interface IFollowService extends IService<Follow> {
     Result isFollow(Long followUserId);
 
     Result followCommons(Long id);
+
+    Result queryFollowerCount(Long id);
+
+    long countFollowers(Long userId);
+
+    void loadFollows(List<Long> userIds);
+
+    CursorResult scanFollowers(Long userId, String cursor, int count);
+
+    boolean isFollowsLoaded(Long userId);
+
+    List<Long> queryFollowIds(Long userId);
+
+    boolean isFollowersLoaded(Long userId);
+
+    boolean loadFollowers(Long userId);
+
+    void rebuildFollowers();
 }
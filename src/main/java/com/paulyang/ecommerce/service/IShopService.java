@@ -11,7 +11,15 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 
+    Result deleteShop(Long id);
+
+    long loadShopGeo(Long typeId);
+
     Result queryShopByType(Integer typeId, Integer current, String sortBy, Double x, Double y);
+
+    Result queryShopNearby(Integer typeId, Double x, Double y, String cursor);
 }
@@ -1,11 +1,17 @@
 package com.paulyang.ecommerce.service;
 
+import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.entity.UserInfo;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * service class
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    List<UserInfo> queryUserInfos(List<Long> userIds);
+
+    Result updateInfo(UserInfo info);
 }
@@ -3,19 +3,33 @@ package com.paulyang.ecommerce.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.paulyang.ecommerce.dto.LoginFormDTO;
 import com.paulyang.ecommerce.dto.Result;
+import com.paulyang.ecommerce.dto.UserDTO;
 import com.paulyang.ecommerce.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * service class
  */
 public interface IUserService extends IService<User> {
-    Result sendCode(String phone, HttpSession session);
+    Result sendCode(String phone, String ip);
 
     Result login(LoginFormDTO loginForm, HttpSession session);
 
+    Result logout(String token);
+
     Result sign();
 
     Result signCount();
+
+    Result signStats();
+
+    Result signStatsBatch(List<Long> userIds);
+
+    Result signCalendar(Integer year);
+
+    List<UserDTO> queryUserDTOs(List<Long> ids);
+
+    Result updateProfile(UserDTO profile, String token);
 }
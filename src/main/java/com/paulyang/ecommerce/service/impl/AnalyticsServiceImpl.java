@@ -0,0 +1,176 @@
+package com.paulyang.ecommerce.service.impl;
+
+import com.paulyang.ecommerce.dto.Result;
+import com.paulyang.ecommerce.service.IAnalyticsService;
+import com.paulyang.ecommerce.utils.ActivityTracker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static com.paulyang.ecommerce.utils.RedisConstants.*;
+
+/**
+ * Counts over the daily activity bitmaps written by ActivityTracker. Bitmaps are indexed by
+ * user id, so a day of 10M users is about 1.2 MB and every count is a BITCOUNT, or a BITOP
+ * and a BITCOUNT in one script, inside Redis.
+ */
+@Slf4j
+@Service
+public class AnalyticsServiceImpl implements IAnalyticsService {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${app.analytics.export-dir:/tmp/ecommerce-analytics}")
+    private String exportDir;
+
+    /**
+     * longest range of days combined in one count
+     */
+    private static final int MAX_RANGE_DAYS = 366;
+
+    /**
+     * most retention points computed in one request, each is a BITOP over two days
+     */
+    private static final int MAX_RETENTION_POINTS = 10;
+
+    private static final DefaultRedisScript<Long> BITOP_COUNT_SCRIPT;
+
+    static {
+        BITOP_COUNT_SCRIPT = new DefaultRedisScript<>();
+        BITOP_COUNT_SCRIPT.setLocation(new ClassPathResource("bitop_count.lua"));
+        BITOP_COUNT_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * @param type active or sign
+     * @return the bitmap key of a day of the type, null for an unknown type
+     */
+    private static Function<LocalDate, String> dayKey(String type) {
+        if ("active".equals(type)) {
+            return ActivityTracker::activeDayKey;
+        }
+        if ("sign".equals(type)) {
+            return ActivityTracker::signDayKey;
+        }
+        return null;
+    }
+
+    /**
+     * users active (or checked in) on a day
+     */
+    @Override
+    public Result countDay(String type, LocalDate day) {
+        Function<LocalDate, String> dayKey = dayKey(type);
+        if (dayKey == null) {
+            return Result.fail("unknown type " + type);
+        }
+        return Result.ok(stringRedisTemplate.execute(
+                (RedisCallback<Long>) connection -> connection.bitCount(dayKey.apply(day).getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * distinct users active (or checked in) on any day of a range, BITOP OR of the days
+     */
+    @Override
+    public Result countRange(String type, LocalDate from, LocalDate to) {
+        Function<LocalDate, String> dayKey = dayKey(type);
+        if (dayKey == null) {
+            return Result.fail("unknown type " + type);
+        }
+        if (to.isBefore(from) || !to.isBefore(from.plusDays(MAX_RANGE_DAYS))) {
+            return Result.fail("the range must be 1 to " + MAX_RANGE_DAYS + " days");
+        }
+        List<String> keys = new ArrayList<>();
+        keys.add(dayKey.apply(from) + ":or");
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            keys.add(dayKey.apply(day));
+        }
+        return Result.ok(stringRedisTemplate.execute(BITOP_COUNT_SCRIPT, keys, "OR"));
+    }
+
+    /**
+     * Of the users of a cohort day, how many were active (or checked in) again N days later,
+     * BITOP AND of the two days, for each N.
+     *
+     * @param days the N, e.g. 1, 7, 30
+     * @return the cohort size and the retained users per N
+     */
+    @Override
+    public Result retention(String type, LocalDate cohort, List<Integer> days) {
+        Function<LocalDate, String> dayKey = dayKey(type);
+        if (dayKey == null) {
+            return Result.fail("unknown type " + type);
+        }
+        if (days.isEmpty() || days.size() > MAX_RETENTION_POINTS) {
+            return Result.fail("1 to " + MAX_RETENTION_POINTS + " retention days can be asked at once");
+        }
+        if (days.stream().anyMatch(n -> n == null || n < 1 || n >= MAX_RANGE_DAYS)) {
+            return Result.fail("retention days must be 1 to " + (MAX_RANGE_DAYS - 1));
+        }
+        String cohortKey = dayKey.apply(cohort);
+        Map<String, Long> retention = new LinkedHashMap<>();
+        retention.put("cohort", stringRedisTemplate.execute(
+                (RedisCallback<Long>) connection -> connection.bitCount(cohortKey.getBytes(StandardCharsets.UTF_8))));
+        for (Integer n : days) {
+            String laterKey = dayKey.apply(cohort.plusDays(n));
+            retention.put("day" + n, stringRedisTemplate.execute(BITOP_COUNT_SCRIPT,
+                    Arrays.asList(cohortKey + ":and", cohortKey, laterKey), "AND"));
+        }
+        return Result.ok(retention);
+    }
+
+    /**
+     * Write the bitmap of a day, deflate-compressed, to a file under app.analytics.export-dir
+     * for offline analysis. Sparse days compress to a small fraction of the raw bitmap.
+     */
+    @Override
+    public Result exportDay(String type, LocalDate day) {
+        Function<LocalDate, String> dayKey = dayKey(type);
+        if (dayKey == null) {
+            return Result.fail("unknown type " + type);
+        }
+        byte[] bitmap = stringRedisTemplate.execute(
+                (RedisCallback<byte[]>) connection -> connection.get(dayKey.apply(day).getBytes(StandardCharsets.UTF_8)));
+        if (bitmap == null) {
+            return Result.fail("no " + type + " bitmap for " + day);
+        }
+        Path file = Paths.get(exportDir, type + "-" + day.format(ActivityTracker.DAY_FORMAT) + ".bitmap.deflate");
+        try {
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(file),
+                    new Deflater(Deflater.BEST_COMPRESSION))) {
+                out.write(bitmap);
+            }
+            Map<String, Object> export = new LinkedHashMap<>();
+            export.put("file", file.toString());
+            export.put("bitmapBytes", bitmap.length);
+            export.put("fileBytes", Files.size(file));
+            return Result.ok(export);
+        } catch (IOException e) {
+            log.error("failed to export {}", file, e);
+            return Result.fail("failed to export " + type + " bitmap for " + day);
+        }
+    }
+}
@@ -1,12 +1,231 @@
 package com.paulyang.ecommerce.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.paulyang.ecommerce.dto.CursorResult;
+import com.paulyang.ecommerce.dto.Result;
+import com.paulyang.ecommerce.dto.UserDTO;
 import com.paulyang.ecommerce.entity.BlogComments;
 import com.paulyang.ecommerce.mapper.BlogCommentsMapper;
 import com.paulyang.ecommerce.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.paulyang.ecommerce.service.IBlogService;
+import com.paulyang.ecommerce.service.IUserService;
+import com.paulyang.ecommerce.utils.CacheClient;
+import com.paulyang.ecommerce.utils.SystemConstants;
+import com.paulyang.ecommerce.utils.UserHolder;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.paulyang.ecommerce.utils.RedisConstants.*;
+
+/**
+ * Comments of blogs. The ids of the newest comments of a blog are kept in a sorted set,
+ * blog:comments:{blogId}, so the pages readers actually open are served from Redis, and the
+ * comment count of the blog is written to tb_blog in batches instead of on every comment.
+ */
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private IUserService userService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * Member of a comment window present while the window holds the oldest comment of the blog,
+     * scored below every comment id
+     */
+    private static final String WINDOW_END = "0";
+
+    @Value("${app.blog.comment-window:200}")
+    private int commentWindow;
+
+    /**
+     * add a comment to a blog
+     *
+     * @param comment
+     * @return
+     */
+    @Override
+    public Result saveComment(BlogComments comment) {
+        if (comment.getBlogId() == null || StrUtil.isBlank(comment.getContent())) {
+            return Result.fail("comment content cannot be empty");
+        }
+//        check the blog through the blog cache
+        if (blogService.queryBlogsByIds(Collections.singletonList(comment.getBlogId())).isEmpty()) {
+            return Result.fail("note does not exist！");
+        }
+        comment.setId(null);
+        comment.setUserId(UserHolder.getUser().getId());
+        comment.setParentId(comment.getParentId() == null ? 0L : comment.getParentId());
+        comment.setAnswerId(comment.getAnswerId() == null ? 0L : comment.getAnswerId());
+        comment.setLiked(0);
+        comment.setStatus(false);
+        if (!save(comment)) {
+            return Result.fail("failed to add comment！");
+        }
+//        count the comment for the next flush and put it at the head of the window, in one round trip
+        String blogId = comment.getBlogId().toString();
+        String windowKey = BLOG_COMMENTS_KEY + blogId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hIncrBy(BLOG_COMMENT_DELTA_KEY, blogId, 1);
+            conn.zAdd(windowKey, comment.getId(), comment.getId().toString());
+            conn.zRemRange(windowKey, 0, -commentWindow - 1);
+            conn.expire(windowKey, TimeUnit.MINUTES.toSeconds(CACHE_COMMENT_TTL));
+            return null;
+        });
+        return Result.ok(comment.getId());
+    }
+
+    /**
+     * Comments of a blog, newest first, with keyset pagination on the comment id. A page is
+     * served from the blog's comment window when the window covers it: every comment id newer
+     * than the oldest one in the window is in the window, so a full page read from it is exact,
+     * and a short page is exact when it reaches the end marker. Other pages are read from
+     * tb_blog_comments with the (blog_id, id) index, refilling the window for the first page.
+     *
+     * @param blogId
+     * @param lastId id of the last comment of the previous page, null for the first page
+     * @return
+     */
+    @Override
+    public Result queryBlogComments(Long blogId, Long lastId) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        String windowKey = BLOG_COMMENTS_KEY + blogId;
+        double max = lastId == null ? Double.POSITIVE_INFINITY : lastId - 1;
+        Set<String> window = stringRedisTemplate.opsForZSet().reverseRangeByScore(windowKey, 0, max, 0, size + 1);
+        List<Long> ids = new ArrayList<>(size);
+        boolean end = false;
+        if (window != null) {
+            for (String member : window) {
+                if (WINDOW_END.equals(member)) {
+                    end = true;
+                } else if (ids.size() < size) {
+                    ids.add(Long.valueOf(member));
+                }
+            }
+        }
+        if (ids.size() < size && !end) {
+            if (lastId != null) {
+//                past the window, read the page from the database
+                List<BlogComments> comments = query()
+                        .eq("blog_id", blogId)
+                        .lt("id", lastId)
+                        .orderByDesc("id")
+                        .last("LIMIT " + size)
+                        .list();
+                fillAuthors(comments);
+                return Result.ok(page(comments, size));
+            }
+            ids = loadCommentWindow(blogId);
+            ids = ids.subList(0, Math.min(size, ids.size()));
+        }
+        List<BlogComments> comments = cacheClient.queryBatchWithPassThrough(CACHE_COMMENT_KEY, ids, BlogComments.class,
+                this::listByIds, BlogComments::getId, CACHE_COMMENT_TTL, TimeUnit.MINUTES);
+        fillAuthors(comments);
+        return Result.ok(page(comments, end ? Integer.MAX_VALUE : size));
+    }
+
+    /**
+     * Fill the comment window of a blog with the ids of its newest comments, adding the end
+     * marker when they are all of them.
+     *
+     * @param blogId
+     * @return the ids written, newest first
+     */
+    private List<Long> loadCommentWindow(Long blogId) {
+        List<Long> ids = query()
+                .select("id")
+                .eq("blog_id", blogId)
+                .orderByDesc("id")
+                .last("LIMIT " + (commentWindow + 1))
+                .list()
+                .stream()
+                .map(BlogComments::getId)
+                .collect(Collectors.toList());
+        boolean complete = ids.size() <= commentWindow;
+        if (!complete) {
+            ids = ids.subList(0, commentWindow);
+        }
+        String windowKey = BLOG_COMMENTS_KEY + blogId;
+        List<Long> written = ids;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : written) {
+                conn.zAdd(windowKey, id, id.toString());
+            }
+            if (complete) {
+                conn.zAdd(windowKey, 0, WINDOW_END);
+            }
+            conn.zRemRange(windowKey, 0, -commentWindow - 1);
+            conn.expire(windowKey, TimeUnit.MINUTES.toSeconds(CACHE_COMMENT_TTL));
+            return null;
+        });
+        return written;
+    }
+
+    /**
+     * @param comments comments of the page, newest first
+     * @param size     page size; a shorter page is the last one
+     */
+    private static CursorResult page(List<BlogComments> comments, int size) {
+        CursorResult r = new CursorResult();
+        r.setList(comments);
+        if (comments.size() >= size) {
+            r.setCursor(comments.get(comments.size() - 1).getId().toString());
+        }
+        return r;
+    }
+
+    private void fillAuthors(List<BlogComments> comments) {
+        if (comments.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = comments.stream().map(BlogComments::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> authors = userService.queryUserDTOs(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, author -> author));
+        for (BlogComments comment : comments) {
+            UserDTO author = authors.get(comment.getUserId());
+            if (author != null) {
+                comment.setName(author.getNickName());
+                comment.setIcon(author.getIcon());
+            }
+        }
+    }
+
+    /**
+     * Write the comment count changes collected by saveComment to tb_blog, one UPDATE per blog,
+     * the same way like counts are flushed, see {@link CacheClient#flushCounterDeltas}. The
+     * cached blog carries its comment count in the body, so it is deleted with the UPDATE.
+     */
+    @Scheduled(fixedDelayString = "${app.blog.comment-flush-interval:5000}")
+    public void flushCommentDeltas() {
+        RLock lock = redissonClient.getLock(BLOG_COMMENT_DELTA_KEY + ":lock");
+        cacheClient.flushCounterDeltas(BLOG_COMMENT_DELTA_KEY, BLOG_VERSION_KEY, lock, (blogId, delta) -> {
+            blogService.update().setSql("comments = comments + " + delta).eq("id", Long.valueOf(blogId)).update();
+            stringRedisTemplate.delete(CACHE_BLOG_KEY + blogId);
+        });
+    }
 }
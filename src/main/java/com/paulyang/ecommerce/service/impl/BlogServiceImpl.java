@@ -1,39 +1,68 @@
 package com.paulyang.ecommerce.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.paulyang.ecommerce.dto.CursorResult;
 import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.dto.ScrollResult;
 import com.paulyang.ecommerce.dto.UserDTO;
 import com.paulyang.ecommerce.entity.Blog;
-import com.paulyang.ecommerce.entity.Follow;
-import com.paulyang.ecommerce.entity.User;
 import com.paulyang.ecommerce.mapper.BlogMapper;
 import com.paulyang.ecommerce.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.paulyang.ecommerce.service.IFollowService;
 import com.paulyang.ecommerce.service.IUserService;
+import com.paulyang.ecommerce.utils.CacheClient;
+import com.paulyang.ecommerce.utils.ContextExecutorService;
+import com.paulyang.ecommerce.utils.FeedMerger;
 import com.paulyang.ecommerce.utils.SystemConstants;
 import com.paulyang.ecommerce.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.DefaultStringTuple;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import static com.paulyang.ecommerce.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.paulyang.ecommerce.utils.RedisConstants.FEED_KEY;
+import static com.paulyang.ecommerce.utils.RedisConstants.*;
 
 
+@Slf4j
 @Service
+@DependsOn("redisConstants")
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
     @Resource
@@ -42,6 +71,252 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private IFollowService followService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private RedissonClient redissonClient;
+
+//    redis message queue creation command：XGROUP CREATE stream.feed g1 0 MKSTREAM
+    private static final String FEED_GROUP = "g1";
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    private static final DefaultRedisScript<Long> BLOG_HOT_SCRIPT;
+    private static final DefaultRedisScript<Long> BLOG_HOT_SWAP_SCRIPT;
+    private static final DefaultRedisScript<List> BLOG_LIKED_SCRIPT;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+        BLOG_HOT_SCRIPT = new DefaultRedisScript<>();
+        BLOG_HOT_SCRIPT.setLocation(new ClassPathResource("blog_hot.lua"));
+        BLOG_HOT_SCRIPT.setResultType(Long.class);
+        BLOG_HOT_SWAP_SCRIPT = new DefaultRedisScript<>();
+        BLOG_HOT_SWAP_SCRIPT.setLocation(new ClassPathResource("blog_hot_swap.lua"));
+        BLOG_HOT_SWAP_SCRIPT.setResultType(Long.class);
+        BLOG_LIKED_SCRIPT = new DefaultRedisScript<>();
+        BLOG_LIKED_SCRIPT.setLocation(new ClassPathResource("blog_liked.lua"));
+        BLOG_LIKED_SCRIPT.setResultType(List.class);
+    }
+
+    @Value("${app.feed.big-author-threshold:5000}")
+    private int bigAuthorThreshold;
+
+    @Value("${app.feed.inbox-max-size:1000}")
+    private int inboxMaxSize;
+
+    @Value("${app.feed.inactive-days:30}")
+    private int inactiveDays;
+
+    @Value("${app.blog.hot-gravity:1.8}")
+    private double hotGravity;
+
+    @Value("${app.blog.hot-max-size:10000}")
+    private int hotMaxSize;
+
+    @Value("${app.blog.like-exact-threshold:10000}")
+    private int likeExactThreshold;
+
+    @Value("${app.blog.like-bloom-bits:8388608}")
+    private long likeBloomBits;
+
+    @Value("${app.blog.user-recent-likes:1000}")
+    private int userRecentLikes;
+
+    private static final ExecutorService FEED_FANOUT_EXECUTOR = new ContextExecutorService(Executors.newSingleThreadExecutor());
+    private static final ExecutorService HOT_RANK_EXECUTOR = new ContextExecutorService(Executors.newSingleThreadExecutor());
+
+    @PostConstruct
+    private void init() {
+        try {
+            stringRedisTemplate.opsForStream().createGroup(FEED_STREAM_KEY, ReadOffset.from("0"), FEED_GROUP);
+        } catch (RedisSystemException e) {
+//            BUSYGROUP: the group already exists
+            log.debug("feed stream group already exists");
+        }
+        FEED_FANOUT_EXECUTOR.submit(new FeedFanoutHandler());
+    }
+
+    /**
+     * Whether the author has reached the big author threshold. Once reached the author stays
+     * a big author, so blogs posted while big are never missing from fans' feeds. On reaching
+     * it the outbox is seeded with the author's latest blogs, which rebuilt inboxes leave out.
+     *
+     * @param authorId
+     * @return
+     */
+    private boolean isBigAuthor(Long authorId) {
+        if (BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(FEED_BIG_AUTHOR_KEY, authorId.toString()))) {
+            return true;
+        }
+        long fans = followService.countFollowers(authorId);
+        if (fans < bigAuthorThreshold) {
+            return false;
+        }
+        List<Blog> blogs = query()
+                .select("id", "create_time")
+                .eq("user_id", authorId)
+                .orderByDesc("create_time")
+                .last("LIMIT " + inboxMaxSize)
+                .list();
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(blogs.size());
+        for (Blog blog : blogs) {
+            long time = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            tuples.add(new DefaultTypedTuple<>(blog.getId().toString(), (double) time));
+        }
+        addToOutbox(authorId, tuples);
+        stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHOR_KEY, authorId.toString());
+        return true;
+    }
+
+    /**
+     * Add blogs to the outbox of a big author, keeping the newest inboxMaxSize, as many as an
+     * inbox holds. Only big authors have an outbox.
+     */
+    private void addToOutbox(Long authorId, Set<ZSetOperations.TypedTuple<String>> tuples) {
+        if (tuples.isEmpty()) {
+            return;
+        }
+        String key = FEED_OUTBOX_KEY + authorId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zAdd(key, tuples.stream()
+                    .map(tuple -> new DefaultStringTuple(tuple.getValue(), tuple.getScore()))
+                    .collect(Collectors.toSet()));
+            conn.zRemRange(key, 0, -inboxMaxSize - 1);
+            return null;
+        });
+    }
+
+    /**
+     * Pushes new blogs into the inboxes of the author's fans, off the request thread.
+     * Each stream message is one blog; fans are streamed from the author's followers:{userId}
+     * set one SSCAN step at a time and each step is written with one pipeline. The SSCAN
+     * cursor of the next step is kept under feed:fanout:{blogId}, so a message left pending
+     * by a crash resumes after the last finished step instead of starting over.
+     * A blog whose author's followers are being loaded elsewhere is left pending and retried
+     * every FEED_FANOUT_RETRY_MILLIS, while the blogs after it are fanned out.
+     */
+    private class FeedFanoutHandler implements Runnable {
+        @Override
+        public void run() {
+//            resume the messages left pending by a crash before this start, XREADGROUP > never delivers them again
+            long retryPendingAt = nextPendingRetry(handlePendingList());
+            while (true) {
+                try {
+                    if (System.currentTimeMillis() >= retryPendingAt) {
+                        retryPendingAt = nextPendingRetry(handlePendingList());
+                    }
+//                get the blog from the message queue XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.feed >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(FEED_GROUP, "c1"),
+                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(FEED_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    if (!handleFanout(list.get(0)) && retryPendingAt == Long.MAX_VALUE) {
+                        retryPendingAt = nextPendingRetry(true);
+                    }
+                } catch (Exception e) {
+                    log.error("Handling feed fan-out exceptions", e);
+                    retryPendingAt = nextPendingRetry(handlePendingList());
+                }
+            }
+        }
+
+        private long nextPendingRetry(boolean pendingLeft) {
+            return pendingLeft ? System.currentTimeMillis() + SystemConstants.FEED_FANOUT_RETRY_MILLIS : Long.MAX_VALUE;
+        }
+
+        /**
+         * @return whether messages were left pending to be retried later
+         */
+        private boolean handlePendingList() {
+            boolean pendingLeft = false;
+//            pending messages after this id, the ones before it were handled or left pending
+            String offset = "0";
+            while (true) {
+                try {
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(FEED_GROUP, "c1"),
+                            StreamReadOptions.empty().count(1),
+                            StreamOffset.create(FEED_STREAM_KEY, ReadOffset.from(offset))
+                    );
+                    if (list == null || list.isEmpty()) {
+                        return pendingLeft;
+                    }
+                    MapRecord<String, Object, Object> record = list.get(0);
+                    if (!handleFanout(record)) {
+                        pendingLeft = true;
+                    }
+                    offset = record.getId().getValue();
+                } catch (Exception e) {
+                    log.error("handle pendingList feed fan-out exception", e);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return whether the blog was fanned out, false if it was left pending to be retried
+         */
+        private boolean handleFanout(MapRecord<String, Object, Object> record) {
+            Map<Object, Object> value = record.getValue();
+            String blogId = value.get("blogId").toString();
+            Long authorId = Long.valueOf(value.get("userId").toString());
+            double timestamp = Double.parseDouble(value.get("timestamp").toString());
+            String progressKey = FEED_FANOUT_KEY + blogId;
+            if (isBigAuthor(authorId)) {
+//                fans pull this author's blogs from the outbox
+                addToOutbox(authorId, Collections.singleton(new DefaultTypedTuple<>(blogId, timestamp)));
+                stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM_KEY, FEED_GROUP, record.getId());
+                return true;
+            }
+            if (!followService.isFollowersLoaded(authorId) && !followService.loadFollowers(authorId)) {
+//                left pending, retried from the pending list
+                log.info("fan-out of blog {} deferred, followers of user {} are being loaded", blogId, authorId);
+                return false;
+            }
+            String cursor = stringRedisTemplate.opsForValue().get(progressKey);
+            long activeSince = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(inactiveDays);
+            do {
+                CursorResult step = followService.scanFollowers(authorId, cursor, SystemConstants.FEED_FANOUT_BATCH_SIZE);
+                cursor = step.getCursor();
+                if (step.getList().isEmpty()) {
+                    continue;
+                }
+//                skip fans not seen recently, their inbox is rebuilt when they come back
+                Object[] fanIds = step.getList().toArray();
+                List<Double> lastActive = stringRedisTemplate.opsForZSet().score(FEED_ACTIVE_KEY, fanIds);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (int i = 0; i < fanIds.length; i++) {
+                        Double seen = lastActive == null ? null : lastActive.get(i);
+                        if (seen == null || seen < activeSince) {
+                            continue;
+                        }
+                        String key = FEED_KEY + fanIds[i];
+                        conn.zAdd(key, timestamp, blogId);
+//                        keep the newest inboxMaxSize entries
+                        conn.zRemRange(key, 0, -inboxMaxSize - 1);
+                    }
+                    return null;
+                });
+                if (cursor != null) {
+                    stringRedisTemplate.opsForValue().set(progressKey, cursor, 1, TimeUnit.DAYS);
+                }
+            } while (cursor != null);
+            stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM_KEY, FEED_GROUP, record.getId());
+            stringRedisTemplate.delete(progressKey);
+            return true;
+        }
+    }
 
     /**
      * query blog by pagination
@@ -51,20 +326,153 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryHotBlog(Integer current) {
+//        read the page of blog ids from the hot ranking
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        Set<String> hotIds = stringRedisTemplate.opsForZSet().reverseRange(BLOG_HOT_KEY, from, from + SystemConstants.MAX_PAGE_SIZE - 1);
+        if (hotIds != null && !hotIds.isEmpty()) {
+//            hydrate through the blog cache
+            List<Long> ids = hotIds.stream().map(Long::valueOf).collect(Collectors.toList());
+            List<Blog> blogs = queryBlogsByIds(ids);
+            enrichBlogs(blogs);
+            return Result.ok(blogs);
+        }
+        if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            return Result.ok(Collections.emptyList());
+        }
+//        ranking not built yet, build it in the background and answer this request from the database
+        loadBlogHotAsync();
+
         // based on user query
         Page<Blog> page = query()
                 .orderByDesc("liked")
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // get current page data
         List<Blog> records = page.getRecords();
-        // query user
-        records.forEach(blog ->{
-            queryBlogUser(blog);
-            isBlogLiked(blog);
-        });
+        // query user and like status of the whole page
+        enrichBlogs(records);
         return Result.ok(records);
     }
 
+    private static String blogHotLikesKey() {
+        return BLOG_HOT_KEY + ":likes";
+    }
+
+    private static String blogHotTimeKey() {
+        return BLOG_HOT_KEY + ":time";
+    }
+
+    /**
+     * Build the hot ranking from the newest hotMaxSize blogs of tb_blog in the background, unless
+     * it is already being built. Like counts and creation times are read in id order one batch at
+     * a time into temporary keys, scored with blog_hot.lua, then swapped in by blog_hot_swap.lua.
+     * The like flush is held off for the whole build, so the loaded counts plus the pending deltas
+     * the swap adds are exact, and likes arriving during the build stay in the delta hashes until
+     * the swap picks them up.
+     */
+    private void loadBlogHotAsync() {
+        String lockKey = BLOG_HOT_KEY + ":lock";
+        if (!BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", 10, TimeUnit.MINUTES))) {
+            return;
+        }
+        HOT_RANK_EXECUTOR.submit(() -> {
+            RLock flushLock = likeFlushLock();
+            flushLock.lock();
+            try {
+                String hotLoadingKey = BLOG_HOT_KEY + ":loading";
+                String likesLoadingKey = blogHotLikesKey() + ":loading";
+                String timeLoadingKey = blogHotTimeKey() + ":loading";
+                stringRedisTemplate.delete(Arrays.asList(hotLoadingKey, likesLoadingKey, timeLoadingKey));
+                long lastId = Long.MAX_VALUE;
+                int loaded = 0;
+                while (loaded < hotMaxSize) {
+                    List<Blog> blogs = query()
+                            .select("id", "liked", "create_time")
+                            .lt("id", lastId)
+                            .orderByDesc("id")
+                            .last("LIMIT " + Math.min(SystemConstants.FEED_FANOUT_BATCH_SIZE, hotMaxSize - loaded))
+                            .list();
+                    if (blogs.isEmpty()) {
+                        break;
+                    }
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        StringRedisConnection conn = (StringRedisConnection) connection;
+                        for (Blog blog : blogs) {
+                            String id = blog.getId().toString();
+                            long created = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                            conn.zAdd(likesLoadingKey, blog.getLiked() == null ? 0 : blog.getLiked(), id);
+                            conn.zAdd(timeLoadingKey, created, id);
+                        }
+                        return null;
+                    });
+                    lastId = blogs.get(blogs.size() - 1).getId();
+                    loaded += blogs.size();
+                }
+                if (loaded > 0) {
+                    rescoreBlogHot(hotLoadingKey, likesLoadingKey, timeLoadingKey);
+                    stringRedisTemplate.execute(BLOG_HOT_SWAP_SCRIPT,
+                            Arrays.asList(hotLoadingKey, likesLoadingKey, timeLoadingKey,
+                                    BLOG_HOT_KEY, blogHotLikesKey(), blogHotTimeKey(),
+                                    BLOG_LIKE_DELTA_KEY, likeDeltaFlushingKey()),
+                            String.valueOf(System.currentTimeMillis()), String.valueOf(hotGravity));
+                }
+            } finally {
+                flushLock.unlock();
+                stringRedisTemplate.delete(lockKey);
+            }
+        });
+    }
+
+    /**
+     * Hot scores decay with age, so recompute them all periodically, one script call per batch.
+     * Blogs beyond the newest hotMaxSize are dropped from the ranking.
+     */
+    @Scheduled(initialDelayString = "${app.blog.hot-rescore-interval:600000}",
+            fixedDelayString = "${app.blog.hot-rescore-interval:600000}")
+    public void rescoreHotBlogs() {
+        String lockKey = BLOG_HOT_KEY + ":lock";
+        if (!BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", 10, TimeUnit.MINUTES))) {
+            return;
+        }
+        try {
+            if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+//                built lazily on first read
+                return;
+            }
+            rescoreBlogHot(BLOG_HOT_KEY, blogHotLikesKey(), blogHotTimeKey());
+//            keep the newest hotMaxSize blogs
+            Long size = stringRedisTemplate.opsForZSet().zCard(blogHotTimeKey());
+            if (size == null || size <= hotMaxSize) {
+                return;
+            }
+            Set<String> oldest = stringRedisTemplate.opsForZSet().range(blogHotTimeKey(), 0, size - hotMaxSize - 1);
+            if (oldest == null || oldest.isEmpty()) {
+                return;
+            }
+            String[] ids = oldest.toArray(new String[0]);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.zRem(BLOG_HOT_KEY, ids);
+                conn.zRem(blogHotLikesKey(), ids);
+                conn.zRem(blogHotTimeKey(), ids);
+                return null;
+            });
+        } finally {
+            stringRedisTemplate.delete(lockKey);
+        }
+    }
+
+    private void rescoreBlogHot(String hotKey, String likesKey, String timeKey) {
+        String now = String.valueOf(System.currentTimeMillis());
+        int batch = SystemConstants.FEED_FANOUT_BATCH_SIZE;
+        for (long start = 0; ; start += batch) {
+            Long rescored = stringRedisTemplate.execute(BLOG_HOT_SCRIPT, Arrays.asList(hotKey, likesKey, timeKey),
+                    now, String.valueOf(hotGravity), String.valueOf(start), String.valueOf(start + batch - 1));
+            if (rescored == null || rescored < batch) {
+                return;
+            }
+        }
+    }
+
     /**
      *
      * query blog based on id
@@ -74,36 +482,120 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
-//        query blog
-        Blog blog = getById(id);
-        if (blog==null) {
+//        query blog, through the blog cache
+        List<Blog> blogs = queryBlogsByIds(Collections.singletonList(id));
+        if (blogs.isEmpty()) {
             return Result.fail("note does not exist！");
         }
+        Blog blog = blogs.get(0);
 //        query users related to blog
-        queryBlogUser(blog);
-        isBlogLiked(blog);
+        enrichBlogs(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
     /**
-     * already liked
+     * edit the title, content, images or shop of a blog, only by its author
      *
      * @param blog
+     * @return
      */
-    private void isBlogLiked(Blog blog) {
+    @Override
+    public Result updateBlog(Blog blog) {
+        Long id = blog.getId();
+        if (id == null) {
+            return Result.fail("note id cannot be empty");
+        }
+        Blog old = getById(id);
+        if (old == null) {
+            return Result.fail("note does not exist！");
+        }
+        if (!old.getUserId().equals(UserHolder.getUser().getId())) {
+            return Result.fail("only the author can edit the note！");
+        }
+        Blog edit = new Blog();
+        edit.setId(id);
+        edit.setShopId(blog.getShopId());
+        edit.setTitle(blog.getTitle());
+        edit.setImages(blog.getImages());
+        edit.setContent(blog.getContent());
+//        update the database, then delete the cache, inside a version bump so no reader caches the old body
+        cacheClient.writeWithVersion(BLOG_VERSION_KEY + id, () -> {
+            updateById(edit);
+            stringRedisTemplate.delete(CACHE_BLOG_KEY + id);
+        });
+        return Result.ok();
+    }
+
+    /**
+     * Load blogs through the blog cache. Each cached blog keeps its like count beside the body,
+     * updated in place by like.lua, and is written back only if no write to the blog happened
+     * while it was loaded.
+     *
+     * @param ids
+     * @return blogs found, in ids order
+     */
+    @Override
+    public List<Blog> queryBlogsByIds(List<Long> ids) {
+        return cacheClient.queryBatchWithVersion(CACHE_BLOG_KEY, BLOG_VERSION_KEY, ids, Blog.class,
+                this::listByIds, Blog::getId, "liked", Arrays.asList(BLOG_LIKE_DELTA_KEY, likeDeltaFlushingKey()),
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
+    }
+
+    private static String likeDeltaFlushingKey() {
+        return CacheClient.flushingKey(BLOG_LIKE_DELTA_KEY);
+    }
+
+    private RLock likeFlushLock() {
+        return redissonClient.getLock(BLOG_LIKE_DELTA_KEY + ":lock");
+    }
+
+    /**
+     * Fill in the author and the current user's like status of a page of blogs. Authors are
+     * resolved through the user cache in one batch, like statuses with one ZMSCORE on the user's
+     * recent likes, so a page costs the same number of round trips whatever its size.
+     * Blogs liked before the user's last userRecentLikes likes show as not liked.
+     *
+     * @param blogs
+     */
+    private void enrichBlogs(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        List<Long> authorIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> authors = userService.queryUserDTOs(authorIds)
+                .stream()
+                .collect(Collectors.toMap(UserDTO::getId, author -> author));
+        for (Blog blog : blogs) {
+            UserDTO author = authors.get(blog.getUserId());
+            if (author != null) {
+                blog.setName(author.getNickName());
+                blog.setIcon(author.getIcon());
+            }
+        }
+
         UserDTO user = UserHolder.getUser();
         if (user == null) {
             return;
         }
-
-        Long userId = user.getId();
-        String key = BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score != null);
+//        recent likes first, then the exact likers for likes older than the recent likes
+        List<String> keys = new ArrayList<>(blogs.size() + 1);
+        List<String> args = new ArrayList<>(blogs.size() + 2);
+        keys.add(USER_LIKES_KEY + user.getId());
+        args.add(user.getId().toString());
+        args.add(String.valueOf(userRecentLikes));
+        for (Blog blog : blogs) {
+            keys.add(BLOG_LIKED_KEY + blog.getId());
+            args.add(blog.getId().toString());
+        }
+        List<?> liked = stringRedisTemplate.execute(BLOG_LIKED_SCRIPT, keys, args.toArray());
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(liked != null && Long.valueOf(1).equals(liked.get(i)));
+        }
     }
 
     /**
-     * like function
+     * like function, toggles the like in redis; the like count reaches tb_blog through
+     * {@link #flushLikeDeltas()}
      *
      * @param id
      * @return
@@ -112,28 +604,28 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result likeBlog(Long id) {
 //        get current user
         Long userId = UserHolder.getUser().getId();
-//        determine whether the current user has liked it
-        String key = BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-//        if you haven't liked it you can like it
-        if (score == null) {
-//            database likes+1
-            boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
-            if (isSuccess) {
-//                save users to the redis set collection
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
-            }
-        } else {
-//            If you have liked it, cancel the like, and the database likes -1
-            boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
-//            remove the user from the redis set collection
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
-            }
-        }
+//        like or unlike, record the count change, update the hot score and the cached count, in one script call
+        stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, BLOG_LIKE_DELTA_KEY, BLOG_HOT_KEY, blogHotLikesKey(), blogHotTimeKey(),
+                        CACHE_BLOG_KEY + id, BLOG_LIKERS_KEY + id, BLOG_LIKE_BLOOM_KEY + id, USER_LIKES_KEY + userId),
+                userId.toString(), id.toString(), String.valueOf(System.currentTimeMillis()), String.valueOf(hotGravity),
+                String.valueOf(likeExactThreshold), String.valueOf(SystemConstants.BLOG_LIKERS_SIZE),
+                String.valueOf(likeBloomBits), String.valueOf(userRecentLikes));
         return Result.ok();
     }
 
+    /**
+     * Write the like count changes collected by like.lua to tb_blog, one UPDATE per blog, see
+     * {@link CacheClient#flushCounterDeltas}. Cached blogs already carry the changes and stay
+     * valid. The lock is renewed by the watchdog until the batch is done, so a slow flush never
+     * lets a second instance apply the same deltas, and only its owner releases it.
+     */
+    @Scheduled(fixedDelayString = "${app.blog.like-flush-interval:5000}")
+    public void flushLikeDeltas() {
+        cacheClient.flushCounterDeltas(BLOG_LIKE_DELTA_KEY, BLOG_VERSION_KEY, likeFlushLock(), (blogId, delta) ->
+                update().setSql("liked = liked + " + delta).eq("id", Long.valueOf(blogId)).update());
+    }
+
     /**
      * query top 5 like users
      *
@@ -142,21 +634,28 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogLikes(Long id) {
-//        query the top 5 like users zrange key 0 4
-        String key = BLOG_LIKED_KEY + id;
-        Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
+//        query the top 5 like users zrange key 0 4, from the exact likers or, for a blog past
+//        the exact threshold, from its first likers
+        List<Object> likers = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zRange(BLOG_LIKED_KEY + id, 0, SystemConstants.BLOG_LIKERS_SIZE - 1);
+            conn.zRange(BLOG_LIKERS_KEY + id, 0, SystemConstants.BLOG_LIKERS_SIZE - 1);
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        Set<String> top5 = (Set<String>) likers.get(0);
+        if (top5 == null || top5.isEmpty()) {
+            @SuppressWarnings("unchecked")
+            Set<String> first = (Set<String>) likers.get(1);
+            top5 = first;
+        }
         if (top5 == null || top5.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
 //        parse out the user id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-//        query users based on user id
-        List<UserDTO> userDTOS = userService.query()
-                .in("id",ids).last("ORDER BY FIELD(id," + idStr +")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+//        query users based on user id, through the user cache
+        List<UserDTO> userDTOS = userService.queryUserDTOs(ids);
         return Result.ok(userDTOS);
     }
 
@@ -176,13 +675,22 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("failed to add note！");
         }
-//        query all fans of the note author
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-//        push notes to fans
-        for (Follow follow : follows) {
-            Long userId = follow.getUserId();
-            String key = FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
+//        push notes to fans asynchronously XADD stream.feed * blogId .. userId .. timestamp ..
+        Map<String, String> message = new HashMap<>(4);
+        message.put("blogId", blog.getId().toString());
+        message.put("userId", user.getId().toString());
+        message.put("timestamp", String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.opsForStream().add(FEED_STREAM_KEY, message);
+//        track the new blog in the hot ranking once it is built, it has no likes yet
+        if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            String blogId = blog.getId().toString();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.zAdd(blogHotTimeKey(), Double.parseDouble(message.get("timestamp")), blogId);
+                conn.zAdd(blogHotLikesKey(), 0, blogId);
+                conn.zAdd(BLOG_HOT_KEY, 0, blogId);
+                return null;
+            });
         }
         // return id
         return Result.ok(blog.getId());
@@ -199,12 +707,56 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogOfFollow(Long max, Integer offset) {
 //        get current user
         Long userId = UserHolder.getUser().getId();
-//        check your inbox
-        String key = FEED_KEY + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
+        String inboxKey = FEED_KEY + userId;
+        long now = System.currentTimeMillis();
+        followService.loadFollows(Collections.singletonList(userId));
+//        big authors followed by the user, and when the user was last seen
+        List<Object> state = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.sInter(FOLLOWS_KEY + userId, FEED_BIG_AUTHOR_KEY);
+            conn.zScore(FEED_ACTIVE_KEY, userId.toString());
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        Set<String> bigAuthors = (Set<String>) state.get(0);
+        Double lastActive = (Double) state.get(1);
+        if (!followService.isFollowsLoaded(userId)) {
+//            the load lost a race with a follow or unfollow and the follow set may be partial, ask the database this time
+            bigAuthors = bigAuthorsFollowedBy(userId);
+        }
+        if (lastActive == null || lastActive < now - TimeUnit.DAYS.toMillis(inactiveDays)) {
+//            fan-out skipped this user while away and the inbox may have been evicted, refill it.
+//            mark the user active first, so a blog committed after the rebuild reads tb_blog is
+//            pushed by the fan-out instead of skipped
+            stringRedisTemplate.opsForZSet().add(FEED_ACTIVE_KEY, userId.toString(), now);
+            rebuildInbox(userId, bigAuthors);
+        }
+//        big authors followed by the user are pulled from their outboxes instead of pushed to the inbox
+        List<String> keys = new ArrayList<>();
+        keys.add(inboxKey);
+        if (bigAuthors != null) {
+            bigAuthors.forEach(authorId -> keys.add(FEED_OUTBOX_KEY + authorId));
+        }
+//        check your inbox and the outboxes in one round trip, then merge them by time
+        int count = SystemConstants.FEED_PAGE_SIZE;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zRevRangeByScoreWithScores(key, 0, max, 0, offset + count);
+            }
+            conn.zAdd(FEED_ACTIVE_KEY, now, userId.toString());
+            return null;
+        });
+        results = results.subList(0, keys.size());
+        List<Set<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>(results.size());
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            Set<ZSetOperations.TypedTuple<String>> source = (Set<ZSetOperations.TypedTuple<String>>) result;
+            sources.add(source);
+        }
+        List<ZSetOperations.TypedTuple<String>> typedTuples = FeedMerger.merge(sources, offset, count);
 //        non empty judgment
-        if (typedTuples == null || typedTuples.isEmpty()) {
+        if (typedTuples.isEmpty()) {
             return Result.ok();
         }
 //        analytical data
@@ -222,14 +774,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 os = 1;
             }
         }
-//        query blog based on id
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+//        query blog based on id, through the blog cache
+        List<Blog> blogs = queryBlogsByIds(ids);
 
-        for (Blog blog : blogs) {
-            queryBlogUser(blog);
-            isBlogLiked(blog);
-        }
+        enrichBlogs(blogs);
 
 //        encapsulate and return
         ScrollResult r = new ScrollResult();
@@ -240,14 +788,97 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
     /**
-     * query blog users
+     * Big authors followed by a user, read from tb_follow for when the user's follow set is not
+     * loaded.
      *
-     * @param blog
+     * @param userId the reader
+     * @return ids of the big authors the reader follows
      */
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    private Set<String> bigAuthorsFollowedBy(Long userId) {
+        List<String> followUserIds = followService.queryFollowIds(userId).stream()
+                .map(Object::toString)
+                .collect(Collectors.toList());
+        List<Object> isBig = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String followUserId : followUserIds) {
+                conn.sIsMember(FEED_BIG_AUTHOR_KEY, followUserId);
+            }
+            return null;
+        });
+        Set<String> bigAuthors = new HashSet<>();
+        for (int i = 0; i < followUserIds.size(); i++) {
+            if (Boolean.TRUE.equals(isBig.get(i))) {
+                bigAuthors.add(followUserIds.get(i));
+            }
+        }
+        return bigAuthors;
+    }
+
+    /**
+     * Refill an inbox from the latest blogs of the users the reader follows, merged with what
+     * the inbox still holds. Big authors are left out, their blogs are pulled from their
+     * outboxes on every read.
+     *
+     * @param userId     the reader
+     * @param bigAuthors big authors the reader follows
+     */
+    private void rebuildInbox(Long userId, Set<String> bigAuthors) {
+        List<Long> followUserIds = followService.queryFollowIds(userId).stream()
+                .filter(id -> bigAuthors == null || !bigAuthors.contains(id.toString()))
+                .collect(Collectors.toList());
+        if (followUserIds.isEmpty()) {
+            return;
+        }
+        List<Blog> blogs = query()
+                .select("id", "create_time")
+                .in("user_id", followUserIds)
+                .orderByDesc("create_time")
+                .last("LIMIT " + inboxMaxSize)
+                .list();
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(blogs.size());
+        for (Blog blog : blogs) {
+            long time = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            tuples.add(new DefaultTypedTuple<>(blog.getId().toString(), (double) time));
+        }
+        String key = FEED_KEY + userId;
+        stringRedisTemplate.opsForZSet().add(key, tuples);
+        stringRedisTemplate.opsForZSet().removeRange(key, 0, -inboxMaxSize - 1);
+    }
+
+    /**
+     * Drop the inboxes of users not seen for inactiveDays. They stop receiving fan-out once
+     * inactive, and their inbox is rebuilt from the blog table when they read their feed again.
+     * Only one instance sweeps at a time; the lock is renewed by the watchdog while it runs.
+     */
+    @Scheduled(initialDelayString = "${app.feed.evict-interval:3600000}",
+            fixedDelayString = "${app.feed.evict-interval:3600000}")
+    public void evictInactiveInboxes() {
+        RLock lock = redissonClient.getLock(FEED_ACTIVE_KEY + ":lock");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long activeSince = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(inactiveDays);
+            while (true) {
+                Set<String> userIds = stringRedisTemplate.opsForZSet()
+                        .rangeByScore(FEED_ACTIVE_KEY, 0, activeSince, 0, SystemConstants.FEED_FANOUT_BATCH_SIZE);
+                if (userIds == null || userIds.isEmpty()) {
+                    return;
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (String userId : userIds) {
+                        conn.del(FEED_KEY + userId);
+                    }
+                    conn.zRem(FEED_ACTIVE_KEY, userIds.toArray(new String[0]));
+                    return null;
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 }
@@ -1,61 +1,169 @@
 package com.paulyang.ecommerce.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.paulyang.ecommerce.dto.CursorResult;
 import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.dto.UserDTO;
 import com.paulyang.ecommerce.entity.Follow;
-import com.paulyang.ecommerce.entity.User;
 import com.paulyang.ecommerce.mapper.FollowMapper;
 import com.paulyang.ecommerce.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.paulyang.ecommerce.service.IUserService;
+import com.paulyang.ecommerce.utils.CacheClient;
+import com.paulyang.ecommerce.utils.SystemConstants;
 import com.paulyang.ecommerce.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static com.paulyang.ecommerce.utils.RedisConstants.*;
+
 /**
  * service implementation class
  */
+@Slf4j
 @Service
+@DependsOn("redisConstants")
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private IUserService userService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * Member of a follow or followers set marking it as loaded from tb_follow
+     */
+    private static final String FOLLOWS_LOADED = "0";
+
+    @Value("${app.follow.rebuild-followers:false}")
+    private boolean rebuildFollowersOnStart;
+
+    private static final DefaultRedisScript<Long> FOLLOW_SCRIPT;
+    private static final DefaultRedisScript<Long> FOLLOW_LOAD_SCRIPT;
+    private static final DefaultRedisScript<Long> FOLLOWERS_LOAD_SCRIPT;
+    private static final DefaultRedisScript<Long> FOLLOWER_COUNT_LOAD_SCRIPT;
+    private static final DefaultRedisScript<List> FOLLOWERS_SCAN_SCRIPT;
+
+    static {
+        FOLLOW_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_SCRIPT.setLocation(new ClassPathResource("follow.lua"));
+        FOLLOW_SCRIPT.setResultType(Long.class);
+        FOLLOW_LOAD_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_LOAD_SCRIPT.setLocation(new ClassPathResource("follow_load.lua"));
+        FOLLOW_LOAD_SCRIPT.setResultType(Long.class);
+        FOLLOWERS_LOAD_SCRIPT = new DefaultRedisScript<>();
+        FOLLOWERS_LOAD_SCRIPT.setLocation(new ClassPathResource("followers_load.lua"));
+        FOLLOWERS_LOAD_SCRIPT.setResultType(Long.class);
+        FOLLOWER_COUNT_LOAD_SCRIPT = new DefaultRedisScript<>();
+        FOLLOWER_COUNT_LOAD_SCRIPT.setLocation(new ClassPathResource("follower_count_load.lua"));
+        FOLLOWER_COUNT_LOAD_SCRIPT.setResultType(Long.class);
+        FOLLOWERS_SCAN_SCRIPT = new DefaultRedisScript<>();
+        FOLLOWERS_SCAN_SCRIPT.setLocation(new ClassPathResource("followers_scan.lua"));
+        FOLLOWERS_SCAN_SCRIPT.setResultType(List.class);
+    }
+
+    /**
+     * Follow sets being loaded by this instance, so concurrent first reads of a user wait for
+     * one load instead of each querying tb_follow
+     */
+    private static final Map<Long, CompletableFuture<Void>> FOLLOWS_LOADING = new ConcurrentHashMap<>();
+    private static final ExecutorService FOLLOWERS_REBUILD_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @PostConstruct
+    private void init() {
+        if (rebuildFollowersOnStart) {
+            FOLLOWERS_REBUILD_EXECUTOR.submit(this::rebuildFollowers);
+        }
+    }
+
     @Override
     public Result follow(Long followUserId, Boolean isFollow) {
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
-//        judgment concern and removal
-        if (isFollow) {
-            Follow follow = new Follow();
-            follow.setUserId(userId);
-            follow.setFollowUserId(followUserId);
-            boolean isSuccess = save(follow);
-            if (isSuccess) {
-                stringRedisTemplate.opsForSet().add(key, followUserId.toString());
-            }
-        } else {
-            boolean isSuccess = remove(new QueryWrapper<Follow>()
-                    .eq("user_id", userId).eq("follow_user_id", followUserId));
-            if (isSuccess) {
-                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
-            }
-        }
+        String key = FOLLOWS_KEY + userId;
+//        judgment concern and removal, inside version bumps so concurrent loads of the follow and followers sets cannot undo it
+        cacheClient.writeWithVersion(FOLLOWS_VERSION_KEY + userId, () ->
+                cacheClient.writeWithVersion(FOLLOWERS_VERSION_KEY + followUserId, () -> {
+                    boolean isSuccess;
+                    if (isFollow) {
+                        Follow follow = new Follow();
+                        follow.setUserId(userId);
+                        follow.setFollowUserId(followUserId);
+                        try {
+                            isSuccess = save(follow);
+                        } catch (DuplicateKeyException e) {
+//                            already followed, e.g. a double submitted follow
+                            isSuccess = false;
+                        }
+                    } else {
+                        isSuccess = remove(new QueryWrapper<Follow>()
+                                .eq("user_id", userId).eq("follow_user_id", followUserId));
+                    }
+                    if (isSuccess) {
+                        stringRedisTemplate.execute(FOLLOW_SCRIPT,
+                                Arrays.asList(key, FOLLOWER_COUNT_KEY + followUserId, FOLLOWERS_KEY + followUserId),
+                                followUserId.toString(), isFollow ? "1" : "-1", userId.toString());
+                    }
+                }));
         return Result.ok();
     }
 
     @Override
     public Result isFollow(Long followUserId) {
         Long userId = UserHolder.getUser().getId();
+        String key = FOLLOWS_KEY + userId;
+        List<Object> state = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.sIsMember(key, FOLLOWS_LOADED);
+            conn.sIsMember(key, followUserId.toString());
+            return null;
+        });
+        if (Boolean.TRUE.equals(state.get(0))) {
+            return Result.ok(state.get(1));
+        }
+        loadFollows(Collections.singletonList(userId));
+        state = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.sIsMember(key, FOLLOWS_LOADED);
+            conn.sIsMember(key, followUserId.toString());
+            return null;
+        });
+        if (Boolean.TRUE.equals(state.get(0))) {
+            return Result.ok(state.get(1));
+        }
+//        the load lost a race with a follow or unfollow, ask the database this time
         Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
         return Result.ok(count > 0);
     }
@@ -70,17 +178,264 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result followCommons(Long id) {
 //        get current user
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
+        loadFollows(Arrays.asList(userId, id));
+        String key = FOLLOWS_KEY + userId;
 //        find intersection
-        String key2 = "follows:" + id;
-        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key, key2);
-        if (intersect == null || intersect.isEmpty()) {
+        String key2 = FOLLOWS_KEY + id;
+        List<Object> state = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.sIsMember(key, FOLLOWS_LOADED);
+            conn.sIsMember(key2, FOLLOWS_LOADED);
+            conn.sInter(key, key2);
+            return null;
+        });
+        List<Long> list;
+        if (Boolean.TRUE.equals(state.get(0)) && Boolean.TRUE.equals(state.get(1))) {
+            @SuppressWarnings("unchecked")
+            Set<String> intersect = (Set<String>) state.get(2);
+            intersect.remove(FOLLOWS_LOADED);
+            list = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
+        } else {
+//            a load lost a race with a follow or unfollow, a set may be partial, ask the database this time
+            list = queryFollowIds(userId);
+            list.retainAll(new HashSet<>(queryFollowIds(id)));
+        }
+        if (list.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
-        List<Long> list = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
-        List<UserDTO> userDTOList = userService.listByIds(list).stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        List<UserDTO> userDTOList = userService.queryUserDTOs(list);
         return Result.ok(userDTOList);
     }
+
+    @Override
+    public Result queryFollowerCount(Long id) {
+        return Result.ok(countFollowers(id));
+    }
+
+    /**
+     * number of followers of a user, cached for FOLLOWER_COUNT_TTL minutes and kept up to date
+     * by follow and unfollow while cached. The count is only cached if no follow or unfollow of
+     * the user raced with counting it, as that write skipped the count while it was not cached.
+     *
+     * @param userId
+     * @return
+     */
+    @Override
+    public long countFollowers(Long userId) {
+        String key = FOLLOWER_COUNT_KEY + userId;
+        String cached = stringRedisTemplate.opsForValue().get(key);
+        if (cached != null) {
+            return Long.parseLong(cached);
+        }
+        String version = stringRedisTemplate.opsForValue().get(FOLLOWERS_VERSION_KEY + userId);
+        Integer count = query().eq("follow_user_id", userId).count();
+        stringRedisTemplate.execute(FOLLOWER_COUNT_LOAD_SCRIPT,
+                Arrays.asList(key, FOLLOWERS_VERSION_KEY + userId, CacheClient.writersKey(FOLLOWERS_VERSION_KEY + userId)),
+                version == null ? "0" : version, count.toString(),
+                String.valueOf(TimeUnit.MINUTES.toSeconds(FOLLOWER_COUNT_TTL)));
+        return count;
+    }
+
+    /**
+     * Make sure the follow sets of the users are loaded from tb_follow. Sets not loaded yet are
+     * read with one query for all of them; a user already being loaded by another request of
+     * this instance is waited for instead of loaded again.
+     *
+     * @param userIds
+     */
+    @Override
+    public void loadFollows(List<Long> userIds) {
+        List<Object> loaded = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long userId : userIds) {
+                conn.sIsMember(FOLLOWS_KEY + userId, FOLLOWS_LOADED);
+            }
+            return null;
+        });
+        List<Long> mine = new ArrayList<>();
+        List<CompletableFuture<Void>> others = new ArrayList<>();
+        for (int i = 0; i < userIds.size(); i++) {
+            if (Boolean.TRUE.equals(loaded.get(i))) {
+                continue;
+            }
+            Long userId = userIds.get(i);
+            CompletableFuture<Void> running = FOLLOWS_LOADING.putIfAbsent(userId, new CompletableFuture<>());
+            if (running == null) {
+                mine.add(userId);
+            } else {
+                others.add(running);
+            }
+        }
+        if (!mine.isEmpty()) {
+            try {
+                bulkLoadFollows(mine);
+            } finally {
+                for (Long userId : mine) {
+                    FOLLOWS_LOADING.remove(userId).complete(null);
+                }
+            }
+        }
+        others.forEach(CompletableFuture::join);
+    }
+
+    /**
+     * One step of iterating the followers of a user, for feed fan-out, without materialising
+     * them all. The followers set must be loaded, see {@link #loadFollowers(Long)}.
+     *
+     * @param userId
+     * @param cursor cursor of the previous step, null to start
+     * @param count  approximate number of followers per step
+     * @return follower ids of this step, which may repeat ids of earlier steps, and the cursor
+     * of the next step, null once every follower was returned
+     */
+    @Override
+    public CursorResult scanFollowers(Long userId, String cursor, int count) {
+        List<?> step = stringRedisTemplate.execute(FOLLOWERS_SCAN_SCRIPT,
+                Collections.singletonList(FOLLOWERS_KEY + userId),
+                cursor == null ? "0" : cursor, String.valueOf(count));
+        List<String> followers = new ArrayList<>();
+        for (Object member : (List<?>) step.get(1)) {
+            if (!FOLLOWS_LOADED.equals(member.toString())) {
+                followers.add(member.toString());
+            }
+        }
+        String next = step.get(0).toString();
+        CursorResult r = new CursorResult();
+        r.setList(followers);
+        r.setCursor("0".equals(next) ? null : next);
+        return r;
+    }
+
+    @Override
+    public boolean isFollowsLoaded(Long userId) {
+        return BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY + userId, FOLLOWS_LOADED));
+    }
+
+    @Override
+    public List<Long> queryFollowIds(Long userId) {
+        return query()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .list()
+                .stream()
+                .map(Follow::getFollowUserId)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean isFollowersLoaded(Long userId) {
+        return BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(FOLLOWERS_KEY + userId, FOLLOWS_LOADED));
+    }
+
+    /**
+     * Rebuild the followers set of a user from tb_follow. Rows are read in id order one batch
+     * at a time and added to a temporary key, which replaces the live set only if no follow or
+     * unfollow of the user happened meanwhile. The lock is renewed by the watchdog while the
+     * load runs, and each run loads into its own temporary key, so another load can never
+     * delete or add to the set being built.
+     *
+     * @param userId
+     * @return whether the set was loaded; false if it is being loaded elsewhere or the load
+     * lost a race with a follow or unfollow, and should be retried
+     */
+    @Override
+    public boolean loadFollowers(Long userId) {
+        String key = FOLLOWERS_KEY + userId;
+        String loadingKey = key + ":loading:" + UUID.randomUUID().toString(true);
+        RLock lock = redissonClient.getLock(key + ":lock");
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            String version = stringRedisTemplate.opsForValue().get(FOLLOWERS_VERSION_KEY + userId);
+            long lastId = 0;
+            while (true) {
+                List<Follow> follows = query()
+                        .select("id", "user_id")
+                        .eq("follow_user_id", userId)
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SystemConstants.FEED_FANOUT_BATCH_SIZE)
+                        .list();
+                if (follows.isEmpty()) {
+                    break;
+                }
+                stringRedisTemplate.opsForSet().add(loadingKey,
+                        follows.stream().map(follow -> follow.getUserId().toString()).toArray(String[]::new));
+                lastId = follows.get(follows.size() - 1).getId();
+            }
+            Long loaded = stringRedisTemplate.execute(FOLLOWERS_LOAD_SCRIPT,
+                    Arrays.asList(key, loadingKey, FOLLOWERS_VERSION_KEY + userId,
+                            CacheClient.writersKey(FOLLOWERS_VERSION_KEY + userId)),
+                    version == null ? "0" : version, FOLLOWS_LOADED);
+            return loaded != null && loaded == 1;
+        } finally {
+//            left behind only if the load failed half way
+            stringRedisTemplate.delete(loadingKey);
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuild the followers set of every user with followers, e.g. after deploying the
+     * followers index or on a fresh redis. Users are read from tb_follow in id order one batch
+     * at a time.
+     */
+    @Override
+    public void rebuildFollowers() {
+        long lastUserId = 0;
+        long users = 0;
+        while (true) {
+            List<Long> userIds = query()
+                    .select("DISTINCT follow_user_id")
+                    .gt("follow_user_id", lastUserId)
+                    .orderByAsc("follow_user_id")
+                    .last("LIMIT " + SystemConstants.FEED_FANOUT_BATCH_SIZE)
+                    .list()
+                    .stream()
+                    .map(Follow::getFollowUserId)
+                    .collect(Collectors.toList());
+            if (userIds.isEmpty()) {
+                break;
+            }
+            for (Long userId : userIds) {
+                if (!loadFollowers(userId)) {
+                    log.warn("followers of user {} not rebuilt, loaded concurrently", userId);
+                }
+            }
+            users += userIds.size();
+            lastUserId = userIds.get(userIds.size() - 1);
+        }
+        log.info("followers rebuilt for {} users", users);
+    }
+
+    private void bulkLoadFollows(List<Long> userIds) {
+//        read the versions before loading, a follow or unfollow that starts afterwards moves them
+        List<String> versions = stringRedisTemplate.opsForValue().multiGet(
+                userIds.stream().map(userId -> FOLLOWS_VERSION_KEY + userId).collect(Collectors.toList()));
+        Map<Long, List<String>> follows = query()
+                .select("user_id", "follow_user_id")
+                .in("user_id", userIds)
+                .list()
+                .stream()
+                .collect(Collectors.groupingBy(Follow::getUserId,
+                        Collectors.mapping(follow -> follow.getFollowUserId().toString(), Collectors.toList())));
+        String script = FOLLOW_LOAD_SCRIPT.getScriptAsString();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < userIds.size(); i++) {
+                Long userId = userIds.get(i);
+                String version = versions == null || versions.get(i) == null ? "0" : versions.get(i);
+                List<String> keysAndArgs = new ArrayList<>();
+                keysAndArgs.add(FOLLOWS_KEY + userId);
+                keysAndArgs.add(FOLLOWS_VERSION_KEY + userId);
+                keysAndArgs.add(CacheClient.writersKey(FOLLOWS_VERSION_KEY + userId));
+                keysAndArgs.add(version);
+                keysAndArgs.addAll(follows.getOrDefault(userId, Collections.emptyList()));
+                keysAndArgs.add(FOLLOWS_LOADED);
+                conn.eval(script, ReturnType.INTEGER, 3, keysAndArgs.toArray(new String[0]));
+            }
+            return null;
+        });
+    }
 }
@@ -1,40 +1,59 @@
 package com.paulyang.ecommerce.service.impl;
 
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.paulyang.ecommerce.dto.CursorResult;
 import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.entity.Shop;
 import com.paulyang.ecommerce.mapper.ShopMapper;
 import com.paulyang.ecommerce.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.paulyang.ecommerce.utils.CacheClient;
+import com.paulyang.ecommerce.utils.ContextExecutorService;
 import com.paulyang.ecommerce.utils.RedisData;
+import com.paulyang.ecommerce.utils.ShopGeoIndex;
 import com.paulyang.ecommerce.utils.SystemConstants;
-import org.springframework.data.geo.Distance;
-import org.springframework.data.geo.GeoResult;
-import org.springframework.data.geo.GeoResults;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.paulyang.ecommerce.utils.RedisConstants.*;
 
 /**
  * service’s implement class
  */
+@Slf4j
 @Service
+@DependsOn("redisConstants")
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
     @Resource
@@ -43,6 +62,387 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Value("${app.geo-index.enabled:false}")
+    private boolean geoIndexEnabled;
+
+    @Value("${app.geo-index.cell-degrees:0.01}")
+    private double geoIndexCellDegrees;
+
+    @Value("${app.shop-geo.bootstrap:true}")
+    private boolean shopGeoBootstrap;
+
+    private static final int SHOP_LOAD_BATCH_SIZE = 1000;
+    /**
+     * How many times a load is retried when shops of the type keep changing while it runs
+     */
+    private static final int SHOP_LOAD_ATTEMPTS = 3;
+
+    private static final String SHOP_RANK_COMMENTS = "comments";
+    private static final String SHOP_RANK_SCORE = "score";
+    /**
+     * Member of a ranking marking it as built from tb_shop, scored lowest so it sorts last
+     */
+    private static final String SHOP_RANK_LOADED = "0";
+
+    private static final DefaultRedisScript<Long> SHOP_RANK_SCRIPT;
+    private static final DefaultRedisScript<List> SHOP_GEO_PAGE_SCRIPT;
+    private static final DefaultRedisScript<Long> SHOP_GEO_LOAD_SCRIPT;
+    private static final DefaultRedisScript<Long> SHOP_RANK_LOAD_SCRIPT;
+
+    static {
+        SHOP_RANK_SCRIPT = new DefaultRedisScript<>();
+        SHOP_RANK_SCRIPT.setLocation(new ClassPathResource("shop_rank.lua"));
+        SHOP_RANK_SCRIPT.setResultType(Long.class);
+        SHOP_GEO_PAGE_SCRIPT = new DefaultRedisScript<>();
+        SHOP_GEO_PAGE_SCRIPT.setLocation(new ClassPathResource("shop_geo_page.lua"));
+        SHOP_GEO_PAGE_SCRIPT.setResultType(List.class);
+        SHOP_GEO_LOAD_SCRIPT = new DefaultRedisScript<>();
+        SHOP_GEO_LOAD_SCRIPT.setLocation(new ClassPathResource("shop_geo_load.lua"));
+        SHOP_GEO_LOAD_SCRIPT.setResultType(Long.class);
+        SHOP_RANK_LOAD_SCRIPT = new DefaultRedisScript<>();
+        SHOP_RANK_LOAD_SCRIPT.setLocation(new ClassPathResource("shop_rank_load.lua"));
+        SHOP_RANK_LOAD_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * optional in-process index answering nearby queries without Redis GEO, null when disabled
+     */
+    private ShopGeoIndex shopGeoIndex;
+    private volatile boolean shopGeoIndexReady;
+
+    @PostConstruct
+    private void initShopGeoIndex() {
+        if (!geoIndexEnabled) {
+            return;
+        }
+        shopGeoIndex = new ShopGeoIndex(geoIndexCellDegrees);
+        CACHE_REBUILD_EXECUTOR.submit(this::loadShopGeoIndex);
+    }
+
+    /**
+     * load shop coordinates from tb_shop in id order, one batch at a time
+     */
+    private void loadShopGeoIndex() {
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = query()
+                    .select("id", "type_id", "x", "y")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + SHOP_LOAD_BATCH_SIZE)
+                    .list();
+            if (shops.isEmpty()) {
+                break;
+            }
+            shopGeoIndex.putAll(shops);
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        shopGeoIndexReady = true;
+        log.info("shop geo index loaded, {} shops", shopGeoIndex.size());
+    }
+
+    /**
+     * load the shop:geo key of every type that has none yet, e.g. on a fresh redis
+     */
+    @PostConstruct
+    private void initShopGeo() {
+        if (!shopGeoBootstrap) {
+            return;
+        }
+        CACHE_REBUILD_EXECUTOR.submit(() -> {
+            for (Long typeId : countShopGeoByType().keySet()) {
+                if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(SHOP_GEO_KEY + typeId))) {
+                    loadShopGeo(typeId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rebuild the shop:geo key of a type from tb_shop. Rows are read in id order one batch at
+     * a time and each batch is written with one multi-member GEOADD into a temporary key, which
+     * then replaces the live key with RENAME, so readers never see a half-loaded set.
+     *
+     * <p>One instance loads a type at a time, under a lock the watchdog renews while the load
+     * runs, and each run loads into its own temporary key. The live key is only replaced if no
+     * shop of the type changed since the load started; otherwise the load starts over, as the
+     * rows read may predate the change.</p>
+     *
+     * @param typeId shop type
+     * @return number of shops loaded, or -1 if the type is being loaded elsewhere or kept
+     * changing during every attempt
+     */
+    @Override
+    public long loadShopGeo(Long typeId) {
+        String key = SHOP_GEO_KEY + typeId;
+        RLock lock = redissonClient.getLock(key + ":lock");
+        if (!lock.tryLock()) {
+            return -1;
+        }
+        try {
+            for (int attempt = 0; attempt < SHOP_LOAD_ATTEMPTS; attempt++) {
+                long total = loadShopGeoOnce(typeId, key);
+                if (total >= 0) {
+                    log.info("shop geo key {} loaded, {} shops", key, total);
+                    return total;
+                }
+            }
+            log.warn("shop geo key {} not loaded, shops of the type changed during every attempt", key);
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * one attempt of {@link #loadShopGeo}
+     *
+     * @return number of shops loaded, or -1 if a shop of the type changed meanwhile
+     */
+    private long loadShopGeoOnce(Long typeId, String key) {
+        String loadingKey = key + ":loading:" + UUID.randomUUID().toString(true);
+        String version = stringRedisTemplate.opsForValue().get(SHOP_GEO_VERSION_KEY + typeId);
+        long lastId = 0;
+        long total = 0;
+        try {
+            while (true) {
+                List<Shop> shops = query()
+                        .select("id", "x", "y")
+                        .eq("type_id", typeId)
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SHOP_LOAD_BATCH_SIZE)
+                        .list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(shops.size());
+                for (Shop shop : shops) {
+                    if (shop.getX() != null && shop.getY() != null) {
+                        locations.add(new RedisGeoCommands.GeoLocation<>(
+                                shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+                    }
+                }
+                if (!locations.isEmpty()) {
+                    stringRedisTemplate.opsForGeo().add(loadingKey, locations);
+                    total += locations.size();
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            Long loaded = stringRedisTemplate.execute(SHOP_GEO_LOAD_SCRIPT,
+                    Arrays.asList(key, loadingKey, SHOP_GEO_VERSION_KEY + typeId),
+                    version == null ? "0" : version);
+            return loaded != null && loaded == 1 ? total : -1;
+        } finally {
+//            left behind only if the load failed half way
+            stringRedisTemplate.delete(loadingKey);
+        }
+    }
+
+    /**
+     * Compare the size of every shop:geo key with tb_shop and reload the types that drifted,
+     * e.g. after a lost incremental write. One instance runs the check per interval.
+     */
+    @Scheduled(initialDelayString = "${app.shop-geo.check-interval:3600000}",
+            fixedDelayString = "${app.shop-geo.check-interval:3600000}")
+    public void checkShopGeo() {
+        RLock lock = redissonClient.getLock(LOCK_SHOP_KEY + "geo:check");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            Map<Long, Long> dbCounts = countShopGeoByType();
+            List<Long> typeIds = new ArrayList<>(dbCounts.keySet());
+            List<Object> redisCounts = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Long typeId : typeIds) {
+                    conn.zCard(SHOP_GEO_KEY + typeId);
+                }
+                return null;
+            });
+            for (int i = 0; i < typeIds.size(); i++) {
+                Long typeId = typeIds.get(i);
+                Long redisCount = (Long) redisCounts.get(i);
+                if (!dbCounts.get(typeId).equals(redisCount)) {
+                    log.warn("shop geo key of type {} has {} shops, tb_shop has {}, reloading",
+                            typeId, redisCount, dbCounts.get(typeId));
+                    loadShopGeo(typeId);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * number of shops with coordinates per type in tb_shop
+     */
+    private Map<Long, Long> countShopGeoByType() {
+        List<Map<String, Object>> rows = listMaps(new QueryWrapper<Shop>()
+                .select("type_id AS typeId", "COUNT(*) AS total")
+                .isNotNull("x")
+                .isNotNull("y")
+                .groupBy("type_id"));
+        Map<Long, Long> counts = new HashMap<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            counts.put(((Number) row.get("typeId")).longValue(), ((Number) row.get("total")).longValue());
+        }
+        return counts;
+    }
+
+    /**
+     * apply a shop's current type, coordinates, comments and score to the shop:geo keys
+     * and the ranking sorted sets. The geo and ranking versions of a type are bumped before
+     * its keys are written, so a load of the type running meanwhile never publishes over the
+     * change.
+     *
+     * @param oldShop the row before the change, null for a new shop
+     * @param shop    the row after the change, null for a deleted shop
+     */
+    private void syncShopIndexes(Shop oldShop, Shop shop) {
+        if (oldShop != null && oldShop.getTypeId() != null
+                && (shop == null || !oldShop.getTypeId().equals(shop.getTypeId()) || shop.getX() == null || shop.getY() == null)) {
+            stringRedisTemplate.opsForValue().increment(SHOP_GEO_VERSION_KEY + oldShop.getTypeId());
+            stringRedisTemplate.opsForZSet().remove(SHOP_GEO_KEY + oldShop.getTypeId(), oldShop.getId().toString());
+        }
+        if (oldShop != null && oldShop.getTypeId() != null
+                && (shop == null || !oldShop.getTypeId().equals(shop.getTypeId()))) {
+            stringRedisTemplate.opsForValue().increment(SHOP_RANK_VERSION_KEY + oldShop.getTypeId());
+            stringRedisTemplate.opsForZSet().remove(shopRankKey(SHOP_RANK_COMMENTS, oldShop.getTypeId()), oldShop.getId().toString());
+            stringRedisTemplate.opsForZSet().remove(shopRankKey(SHOP_RANK_SCORE, oldShop.getTypeId()), oldShop.getId().toString());
+        }
+        if (shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+            stringRedisTemplate.opsForValue().increment(SHOP_GEO_VERSION_KEY + shop.getTypeId());
+            stringRedisTemplate.opsForGeo().add(
+                    SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), shop.getId().toString());
+        }
+        if (shop != null && shop.getTypeId() != null) {
+            stringRedisTemplate.opsForValue().increment(SHOP_RANK_VERSION_KEY + shop.getTypeId());
+            stringRedisTemplate.execute(SHOP_RANK_SCRIPT,
+                    Arrays.asList(shopRankKey(SHOP_RANK_COMMENTS, shop.getTypeId()), shopRankKey(SHOP_RANK_SCORE, shop.getTypeId())),
+                    shop.getId().toString(), String.valueOf(rankScore(shop.getComments())), String.valueOf(rankScore(shop.getScore())));
+        }
+        if (shopGeoIndex != null) {
+            if (shop == null) {
+                shopGeoIndex.remove(oldShop.getId());
+            } else {
+                shopGeoIndex.put(shop);
+            }
+        }
+    }
+
+    /**
+     * Run an index update once the surrounding transaction committed, or right away outside a
+     * transaction. A load of the indexes reading tb_shop after the update is then sure to see
+     * the row it describes.
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static String shopRankKey(String field, Long typeId) {
+        return SHOP_RANK_KEY + field + ":" + typeId;
+    }
+
+    private static double rankScore(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Build the comments and score rankings of a type from tb_shop in the background, unless
+     * another reader is already building them. Rows are read in id order one batch at a time
+     * into temporary keys, which then replace the live keys with RENAME.
+     *
+     * <p>One instance builds a type at a time, under a lock the watchdog renews while the
+     * build runs, and each run builds into its own temporary keys. The live keys are only
+     * replaced if no shop of the type was written since the build started; otherwise the
+     * build starts over. A type without shops gets rankings holding just the loaded marker,
+     * so its readers do not start a build each time.</p>
+     *
+     * @param typeId shop type
+     */
+    private void loadShopRankAsync(Long typeId) {
+        CACHE_REBUILD_EXECUTOR.submit(() -> {
+            String commentsKey = shopRankKey(SHOP_RANK_COMMENTS, typeId);
+            RLock lock = redissonClient.getLock(commentsKey + ":lock");
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+//                built by another reader while this one waited for the executor
+                if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(commentsKey))) {
+                    return;
+                }
+                for (int attempt = 0; attempt < SHOP_LOAD_ATTEMPTS; attempt++) {
+                    if (loadShopRankOnce(typeId)) {
+                        return;
+                    }
+                }
+                log.warn("shop rankings of type {} not built, shops of the type changed during every attempt", typeId);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * one attempt of {@link #loadShopRankAsync}
+     *
+     * @return whether the rankings were published; false if a shop of the type was written meanwhile
+     */
+    private boolean loadShopRankOnce(Long typeId) {
+        String commentsKey = shopRankKey(SHOP_RANK_COMMENTS, typeId);
+        String scoreKey = shopRankKey(SHOP_RANK_SCORE, typeId);
+        String run = UUID.randomUUID().toString(true);
+        String commentsLoadingKey = commentsKey + ":loading:" + run;
+        String scoreLoadingKey = scoreKey + ":loading:" + run;
+        String version = stringRedisTemplate.opsForValue().get(SHOP_RANK_VERSION_KEY + typeId);
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = query()
+                        .select("id", "comments", "score")
+                        .eq("type_id", typeId)
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SHOP_LOAD_BATCH_SIZE)
+                        .list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Shop shop : shops) {
+                        String id = shop.getId().toString();
+                        conn.zAdd(commentsLoadingKey, rankScore(shop.getComments()), id);
+                        conn.zAdd(scoreLoadingKey, rankScore(shop.getScore()), id);
+                    }
+                    return null;
+                });
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            Long loaded = stringRedisTemplate.execute(SHOP_RANK_LOAD_SCRIPT,
+                    Arrays.asList(commentsKey, scoreKey, commentsLoadingKey, scoreLoadingKey, SHOP_RANK_VERSION_KEY + typeId),
+                    version == null ? "0" : version, SHOP_RANK_LOADED);
+            return loaded != null && loaded == 1;
+        } finally {
+//            left behind only if the load failed half way
+            stringRedisTemplate.delete(Arrays.asList(commentsLoadingKey, scoreLoadingKey));
+        }
+    }
+
     /**
      * Solve the problem of cache penetration and breakdown
      *
@@ -70,7 +470,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = new ContextExecutorService(Executors.newFixedThreadPool(10));
 
     /**
      * logical expiration resolves cache breakdown
@@ -246,6 +646,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // write to database
+        save(shop);
+        syncShopIndexes(null, shop);
+        // return store id
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -253,8 +662,29 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("The store id cannot be empty");
         }
+        boolean indexChanged = shop.getTypeId() != null || shop.getX() != null || shop.getY() != null
+                || shop.getComments() != null || shop.getScore() != null;
+        Shop oldShop = indexChanged ? getById(id) : null;
         updateById(shop);
         stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        if (oldShop != null) {
+            // the request may carry only the changed columns, re-read the row
+            Shop newShop = getById(id);
+            afterCommit(() -> syncShopIndexes(oldShop, newShop));
+        }
+        return Result.ok();
+    }
+
+    @Override
+    @Transactional
+    public Result deleteShop(Long id) {
+        Shop shop = getById(id);
+        if (shop == null) {
+            return Result.fail("the store does not exist！");
+        }
+        removeById(id);
+        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        afterCommit(() -> syncShopIndexes(shop, null));
         return Result.ok();
     }
 
@@ -291,40 +721,182 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
         int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
 
-//        query redis to sort and paging results by distance：shopId、distance
-        String key = SHOP_GEO_KEY + typeId;
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
-                .search(key,
-                        GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end));
-//        parse out the id
-        if (results == null) {
-            return Result.ok(Collections.emptyList());
+//        answer from the in-process index when it is loaded
+        if (shopGeoIndexReady) {
+            List<ShopGeoIndex.Hit> hits = shopGeoIndex.search(
+                    typeId.longValue(), x, y, SystemConstants.SHOP_NEARBY_RADIUS, null, null, end);
+            if (hits.size() <= from) {
+                return Result.ok(Collections.emptyList());
+            }
+            return Result.ok(hydrateShops(hits.subList(from, hits.size())));
         }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if (list.size() <= from) {
+
+//        query the cached distance-sorted result set of this area：shopId、distance
+        List<ShopGeoIndex.Hit> hits = searchShopGeoSnapshot(typeId, x, y, from, end);
+        if (hits.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
-        List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
-        });
-
-//        query shop based on id
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD( id," + idStr + ")").list();
+//        query shop based on id, through the shop cache
+        List<Shop> shops = hydrateShops(hits);
         for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+//            the snapshot is shared by a rounded area, measure from the caller's own position
+            shop.setDistance(ShopGeoIndex.distance(x, y, shop.getX(), shop.getY()));
         }
 //        return
         return Result.ok(shops);
     }
 
+    /**
+     * Nearby shops with cursor paging: each page continues after the last shop of the
+     * previous one instead of re-fetching and discarding all earlier pages.
+     *
+     * @param typeId shop type
+     * @param x      longitude
+     * @param y      latitude
+     * @param cursor cursor returned by the previous page, null for the first page
+     * @return CursorResult holding the shops and the cursor of the next page
+     */
+    @Override
+    public Result queryShopNearby(Integer typeId, Double x, Double y, String cursor) {
+        NearbyCursor after = NearbyCursor.decode(cursor);
+        if (after == null && StrUtil.isNotBlank(cursor)) {
+            return Result.fail("invalid cursor");
+        }
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        int rank = after == null ? 0 : after.rank;
+        List<ShopGeoIndex.Hit> hits;
+        if (shopGeoIndexReady) {
+            hits = shopGeoIndex.search(typeId.longValue(), x, y, SystemConstants.SHOP_NEARBY_RADIUS,
+                    after == null ? null : after.distance, after == null ? null : after.id, pageSize);
+        } else {
+            hits = searchShopGeoSnapshot(typeId, x, y, rank, rank + pageSize);
+        }
+        List<Shop> shops = hydrateShops(hits);
+        if (!shopGeoIndexReady) {
+            shops.forEach(shop -> shop.setDistance(ShopGeoIndex.distance(x, y, shop.getX(), shop.getY())));
+        }
+        CursorResult r = new CursorResult();
+        r.setList(shops);
+        if (hits.size() == pageSize) {
+            ShopGeoIndex.Hit last = hits.get(hits.size() - 1);
+            r.setCursor(new NearbyCursor(last.getDistance(), last.getId(), rank + hits.size()).encode());
+        }
+        return Result.ok(r);
+    }
+
+    /**
+     * Read one page of the distance-sorted result set for a (typeId, rounded coordinate, radius)
+     * query. The full result set is computed once by GEOSEARCHSTORE into a short-TTL sorted set
+     * scored by distance, so every later page is a ZRANGE of just that page, and callers whose
+     * coordinates round to the same point share the same result set. The result set and its TTL
+     * are written by one script, see shop_geo_page.lua.
+     *
+     * <p>Shops are ordered by their distance from the rounded coordinate, not from the caller,
+     * while the distances shown are measured from the caller. The two differ by at most the
+     * rounding offset (about 80 m at SHOP_GEO_ROUNDING_SCALE 1000), so shops whose distances
+     * are closer than that may appear slightly out of order, also across pages.</p>
+     *
+     * @param typeId shop type
+     * @param x      longitude
+     * @param y      latitude
+     * @param from   rank of the first shop of the page, inclusive
+     * @param end    rank of the last shop of the page, exclusive
+     * @return hits of the page, distances measured from the rounded coordinate
+     */
+    private List<ShopGeoIndex.Hit> searchShopGeoSnapshot(Integer typeId, double x, double y, int from, int end) {
+        double roundedX = roundCoordinate(x);
+        double roundedY = roundCoordinate(y);
+        String resultKey = CACHE_SHOP_GEO_KEY + typeId + ":" + roundedX + ":" + roundedY
+                + ":" + (long) SystemConstants.SHOP_NEARBY_RADIUS;
+//        the page, and the result set first if it is missing or expired, on the redis side
+        List<?> page = stringRedisTemplate.execute(SHOP_GEO_PAGE_SCRIPT,
+                Arrays.asList(SHOP_GEO_KEY + typeId, resultKey),
+                String.valueOf(roundedX), String.valueOf(roundedY),
+                String.valueOf((long) SystemConstants.SHOP_NEARBY_RADIUS), String.valueOf(CACHE_SHOP_GEO_TTL),
+                String.valueOf(from), String.valueOf(end - 1));
+        if (page == null || page.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ShopGeoIndex.Hit> hits = new ArrayList<>(page.size() / 2);
+        for (int i = 0; i + 1 < page.size(); i += 2) {
+            hits.add(new ShopGeoIndex.Hit(Long.parseLong(page.get(i).toString()), Double.parseDouble(page.get(i + 1).toString())));
+        }
+        return hits;
+    }
+
+    private static double roundCoordinate(double degrees) {
+        double scale = SystemConstants.SHOP_GEO_ROUNDING_SCALE;
+        return Math.round(degrees * scale) / scale;
+    }
+
+    /**
+     * Load the shops of the hits, in hit order, from the logical expiration shop cache,
+     * see {@link CacheClient#queryBatchWithLogicalExpire}.
+     *
+     * @param hits nearby hits ordered by distance
+     * @return shops with their distance filled in
+     */
+    private List<Shop> hydrateShops(List<ShopGeoIndex.Hit> hits) {
+        if (hits.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(hits.size());
+        Map<Long, Double> distanceMap = new HashMap<>(hits.size());
+        for (ShopGeoIndex.Hit hit : hits) {
+            ids.add(hit.getId());
+            distanceMap.put(hit.getId(), hit.getDistance());
+        }
+        List<Shop> shops = queryShopsByIds(ids);
+        for (Shop shop : shops) {
+            shop.setDistance(distanceMap.get(shop.getId()));
+        }
+        return shops;
+    }
+
+    /**
+     * Load shops in id order from the logical expiration shop cache,
+     * see {@link CacheClient#queryBatchWithLogicalExpire}.
+     *
+     * @param ids shop ids
+     * @return shops in the order of ids
+     */
+    private List<Shop> queryShopsByIds(List<Long> ids) {
+        return cacheClient.queryBatchWithLogicalExpire(
+                CACHE_SHOP_KEY, ids, Shop.class, this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Position after the last shop of a nearby page: its distance and id for the in-process
+     * index, its rank for the redis path. Encoded as url-safe base64 so clients treat it as opaque.
+     */
+    private static class NearbyCursor {
+        private final double distance;
+        private final long id;
+        private final int rank;
+
+        NearbyCursor(double distance, long id, int rank) {
+            this.distance = distance;
+            this.id = id;
+            this.rank = rank;
+        }
+
+        String encode() {
+            return Base64.encodeUrlSafe(distance + ":" + id + ":" + rank);
+        }
+
+        static NearbyCursor decode(String cursor) {
+            if (StrUtil.isBlank(cursor)) {
+                return null;
+            }
+            try {
+                String[] parts = Base64.decodeStr(cursor).split(":");
+                return new NearbyCursor(Double.parseDouble(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
     /**
      * sort by popularity or rating
      *
@@ -334,6 +906,25 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @return
      */
     private Result queryShopByComments(Integer typeId, Integer current, String sortBy) {
+//        read the page of shop ids from the ranking of the type
+        String field = sortBy.equals(SHOP_RANK_COMMENTS) ? SHOP_RANK_COMMENTS : SHOP_RANK_SCORE;
+        String key = shopRankKey(field, typeId.longValue());
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(key, from, from + SystemConstants.DEFAULT_PAGE_SIZE - 1);
+        if (ids != null) {
+//            the loaded marker sorts last, so only the last page holds it
+            ids.remove(SHOP_RANK_LOADED);
+        }
+        if (ids != null && !ids.isEmpty()) {
+//            hydrate through the shop cache
+            List<Long> shopIds = ids.stream().map(Long::valueOf).collect(Collectors.toList());
+            return Result.ok(queryShopsByIds(shopIds));
+        }
+        if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(key))) {
+            return Result.ok(Collections.emptyList());
+        }
+//        ranking not built yet, build it in the background and answer this request from the database
+        loadShopRankAsync(typeId.longValue());
 
         Page<Shop> page = new Page<>();
         if (sortBy.equals("comments")) {
@@ -1,11 +1,25 @@
 package com.paulyang.ecommerce.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.paulyang.ecommerce.dto.Result;
 import com.paulyang.ecommerce.entity.UserInfo;
 import com.paulyang.ecommerce.mapper.UserInfoMapper;
 import com.paulyang.ecommerce.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.paulyang.ecommerce.utils.CacheClient;
+import com.paulyang.ecommerce.utils.UserHolder;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.paulyang.ecommerce.utils.RedisConstants.CACHE_USER_INFO_KEY;
+import static com.paulyang.ecommerce.utils.RedisConstants.CACHE_USER_INFO_TTL;
+
 /**
  * <p>
  *  serviceImplementationClass
@@ -17,4 +31,64 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * query user details through the user info cache, one MGET for the cached users and one
+     * query for the rest; users without details get a Negative Cache Entry
+     *
+     * @param userIds
+     * @return details found, in userIds order
+     */
+    @Override
+    public List<UserInfo> queryUserInfos(List<Long> userIds) {
+        return cacheClient.queryBatchWithPassThrough(CACHE_USER_INFO_KEY, userIds, UserInfo.class,
+                this::loadUserInfos, UserInfo::getUserId, CACHE_USER_INFO_TTL, TimeUnit.MINUTES);
+    }
+
+    private List<UserInfo> loadUserInfos(Collection<Long> userIds) {
+        List<UserInfo> infos = listByIds(userIds);
+//        the timestamps are never shown, keep them out of the cache
+        infos.forEach(info -> info.setCreateTime(null).setUpdateTime(null));
+        return infos;
+    }
+
+    /**
+     * Edit the details of the current user, created on the first edit. The row is read back
+     * and written through to the cache, replacing the old details or a Negative Cache Entry.
+     *
+     * @param info city, introduce, gender and birthday; other fields are ignored
+     * @return
+     */
+    @Override
+    public Result updateInfo(UserInfo info) {
+        if (info.getCity() == null && info.getIntroduce() == null
+                && info.getGender() == null && info.getBirthday() == null) {
+            return Result.fail("nothing to update");
+        }
+        if (StrUtil.length(info.getIntroduce()) > 128) {
+            return Result.fail("the introduction cannot exceed 128 characters");
+        }
+        Long userId = UserHolder.getUser().getId();
+        UserInfo edit = new UserInfo()
+                .setUserId(userId)
+                .setCity(info.getCity())
+                .setIntroduce(info.getIntroduce())
+                .setGender(info.getGender())
+                .setBirthday(info.getBirthday());
+        if (!updateById(edit)) {
+            try {
+                save(edit);
+            } catch (DuplicateKeyException e) {
+//                a concurrent first edit created the row
+                updateById(edit);
+            }
+        }
+        List<UserInfo> infos = loadUserInfos(Collections.singletonList(userId));
+        if (!infos.isEmpty()) {
+            cacheClient.set(CACHE_USER_INFO_KEY + userId, infos.get(0), CACHE_USER_INFO_TTL, TimeUnit.MINUTES);
+        }
+        return Result.ok();
+    }
 }
@@ -2,33 +2,51 @@ package com.paulyang.ecommerce.service.impl;
 
 import ch.qos.logback.core.util.TimeUtil;
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.paulyang.ecommerce.dto.LoginFormDTO;
 import com.paulyang.ecommerce.dto.Result;
+import com.paulyang.ecommerce.dto.SignStats;
 import com.paulyang.ecommerce.dto.UserDTO;
 import com.paulyang.ecommerce.entity.User;
 import com.paulyang.ecommerce.mapper.UserMapper;
 import com.paulyang.ecommerce.service.IUserService;
+import com.paulyang.ecommerce.utils.ActivityTracker;
+import com.paulyang.ecommerce.utils.CacheClient;
+import com.paulyang.ecommerce.utils.LocalBlocklist;
 import com.paulyang.ecommerce.utils.RegexUtils;
+import com.paulyang.ecommerce.utils.SessionTokens;
+import com.paulyang.ecommerce.utils.SignBits;
+import com.paulyang.ecommerce.utils.SystemConstants;
 import com.paulyang.ecommerce.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.paulyang.ecommerce.utils.RedisConstants.*;
 import static com.paulyang.ecommerce.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -42,24 +60,92 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private SessionTokens sessionTokens;
+    @Resource
+    private ActivityTracker activityTracker;
+
+    @Value("${app.login-code.window:3600000}")
+    private long sendWindow;
+
+    @Value("${app.login-code.phone-max:5}")
+    private int sendPhoneMax;
+
+    @Value("${app.login-code.ip-max:20}")
+    private int sendIpMax;
+
+    @Value("${app.login-code.local-max-size:100000}")
+    private int sendBlocklistSize;
 
+    /**
+     * phones and IPs the send limiter rejected, refused locally until their window frees up
+     */
+    private LocalBlocklist sendBlocklist;
+
+    @PostConstruct
+    private void init() {
+        sendBlocklist = new LocalBlocklist(sendBlocklistSize);
+    }
+
+    private static final DefaultRedisScript<Long> LOGIN_CODE_SCRIPT;
+    private static final DefaultRedisScript<List> SEND_CODE_SCRIPT;
+
+    static {
+        LOGIN_CODE_SCRIPT = new DefaultRedisScript<>();
+        LOGIN_CODE_SCRIPT.setLocation(new ClassPathResource("login_code.lua"));
+        LOGIN_CODE_SCRIPT.setResultType(Long.class);
+        SEND_CODE_SCRIPT = new DefaultRedisScript<>();
+        SEND_CODE_SCRIPT.setLocation(new ClassPathResource("send_code.lua"));
+        SEND_CODE_SCRIPT.setResultType(List.class);
+    }
+
+    /**
+     * Send a login code, at most app.login-code.phone-max per phone and app.login-code.ip-max
+     * per IP within a sliding window of app.login-code.window milliseconds. While a code is
+     * still valid no new one is written and its remaining validity is returned instead.
+     *
+     * @param phone
+     * @param ip the client address
+     * @return seconds the code of the phone stays valid
+     */
     @Override
-    public Result sendCode(String phone, HttpSession session) {
+    public Result sendCode(String phone, String ip) {
 //        1.verify the mobile phone number
         if (RegexUtils.isPhoneInvalid(phone)) {
             return Result.fail("The phone number is in the wrong format！");
         }
-//        2.if not an error message is returned
-//        3.yes, a verification code will be generated
+        String phoneLimitKey = LOGIN_CODE_PHONE_LIMIT_KEY + phone;
+        String ipLimitKey = LOGIN_CODE_IP_LIMIT_KEY + ip;
+        long now = System.currentTimeMillis();
+//        2.a phone or IP limited recently is refused without asking redis
+        long blocked = Math.max(sendBlocklist.remaining(phoneLimitKey, now), sendBlocklist.remaining(ipLimitKey, now));
+        if (blocked > 0) {
+            return Result.fail("too many verification codes, try again in " + toSeconds(blocked) + " seconds");
+        }
+//        3.generate a code, stored unless one is still valid or a limit is reached
         String code = RandomUtil.randomNumbers(6);
-//        4.save the verification code to session
-//        session.setAttribute("code", code);
-//        4.save to redis
-        stringRedisTemplate.opsForValue().set(LOGIN_CODE_KEY + phone, code, LOGIN_CODE_TTL, TimeUnit.MINUTES);
-//        5。send a verification code
-        log.debug("the sms verification code was successfully sent，captcha：{}", code);
-//        return ok
-        return Result.ok();
+        List<?> sent = stringRedisTemplate.execute(SEND_CODE_SCRIPT,
+                Arrays.asList(LOGIN_CODE_KEY + phone, phoneLimitKey, ipLimitKey),
+                String.valueOf(now), String.valueOf(sendWindow), String.valueOf(sendPhoneMax),
+                String.valueOf(sendIpMax), code, String.valueOf(TimeUnit.MINUTES.toMillis(LOGIN_CODE_TTL)));
+        long status = ((Number) sent.get(0)).longValue();
+        long millis = ((Number) sent.get(1)).longValue();
+        if (status == 2 || status == 3) {
+            sendBlocklist.block(status == 2 ? phoneLimitKey : ipLimitKey, now + millis);
+            return Result.fail("too many verification codes, try again in " + toSeconds(millis) + " seconds");
+        }
+        if (status == 0) {
+//            4.send a verification code
+            log.debug("the sms verification code was successfully sent，captcha：{}", code);
+        }
+//        return how long the code stays valid
+        return Result.ok(toSeconds(millis));
+    }
+
+    private static long toSeconds(long millis) {
+        return (millis + 999) / 1000;
     }
 
     /**
@@ -76,35 +162,38 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (RegexUtils.isPhoneInvalid(phone)) {
             return Result.fail("the phone number is in the wrong format");
         }
-//        2。verify the verification code
-        Object cacheCode = stringRedisTemplate.opsForValue().get(LOGIN_CODE_KEY + phone);
+//        2。verify the verification code and consume it, in one script
         String code = loginForm.getCode();
+        Long verified = code == null ? null : stringRedisTemplate.execute(LOGIN_CODE_SCRIPT,
+                Collections.singletonList(LOGIN_CODE_KEY + phone), code);
         //        3。inconsistencies, error reports
-        if (cacheCode == null || !cacheCode.toString().equals(code)) {
+        if (verified == null || verified != 1) {
             return Result.fail("the verification code is incorrect");
         }
-//        4。Consistently, query users based on their mobile phone number
-        User user = query().eq("phone", phone).one();
+//        4。Consistently, query users based on their mobile phone number, through the phone and user caches
 //        5。determine whether a user exists
 //        6。does not exist create a new user and save
-        if (user == null) {
-            createUserWithPhone(phone);
-        }
+        UserDTO userDTO = queryUserDTOByPhone(phone);
 //        7。save the user information to the session
-//        save the user information to redis
-        String token = UUID.randomUUID().toString(true);
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
-        String tokenKey = LOGIN_USER_KEY + token;
-        stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
-        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+//        save the user information to redis, or sign it into the token in the signed session mode
+        String token = sessionTokens.issue(userDTO);
 //        session.setAttribute("user", BeanUtil.copyProperties(user, UserDTO.class));
         return Result.ok(token);
     }
 
+    /**
+     * logout function, the session is removed from redis and from the session cache of every instance,
+     * or the signed token is revoked
+     *
+     * @param token
+     * @return
+     */
+    @Override
+    public Result logout(String token) {
+        sessionTokens.revoke(token);
+        return Result.ok();
+    }
+
     /**
      * check in function
      *
@@ -117,12 +206,13 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 //        get the date
         LocalDateTime now = LocalDateTime.now();
 //        concatenate the key
-        String keySuffix = now.format(DateTimeFormatter.ofPattern("yyyyMM"));
-        String key = "sign:" + userId + keySuffix;
+        String key = signKey(userId, YearMonth.from(now));
 //        get today is the first day of the month
         int dayOfMonth = now.getDayOfMonth();
 //        write in redis setbit key offset 1
         stringRedisTemplate.opsForValue().setBit(key, dayOfMonth - 1, true);
+//        and in the check in bitmap of the day, for the analytics
+        activityTracker.markSigned(userId);
         return Result.ok();
     }
 
@@ -138,8 +228,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 //        get the date
         LocalDateTime now = LocalDateTime.now();
 //        concatenate the key
-        String keySuffix = now.format(DateTimeFormatter.ofPattern("yyyyMM"));
-        String key = "sign:" + userId + keySuffix;
+        String key = signKey(userId, YearMonth.from(now));
 //        get today is the first day of the month
         int dayOfMonth = now.getDayOfMonth();
 //        Get all the check-in records for the month up to today, and return a decimal number
@@ -156,29 +245,218 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (num == null || num == 0) {
             return Result.ok(0);
         }
-//        loop traversal
-        int count = 0;
-        while (true) {
-//        Let this number be compared with 1 to get the last bit of the number,
-//        determine whether the bit is 0
-            if ((num & 1) == 0) {
-//                If it is 0, it means that you have not checked in and it is over
-                break;
-            } else {
-//        If it is not 0, it means that it is checked in, and the counter is +1
-                count++;
+//        the days checked in up to today are the trailing ones of the number
+        return Result.ok(SignBits.trailingRun(num));
+    }
+
+    /**
+     * check in statistics of the current user: days this month, current streak and longest
+     * streak, streaks counted across months
+     *
+     * @return
+     */
+    @Override
+    public Result signStats() {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(querySignStats(Collections.singletonList(userId)).get(0));
+    }
+
+    /**
+     * check in statistics of many users, read with one pipeline
+     *
+     * @param userIds
+     * @return
+     */
+    @Override
+    public Result signStatsBatch(List<Long> userIds) {
+        if (userIds == null || userIds.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        if (userIds.size() > SystemConstants.SIGN_STATS_BATCH_SIZE) {
+            return Result.fail("at most " + SystemConstants.SIGN_STATS_BATCH_SIZE + " users at a time");
+        }
+        return Result.ok(querySignStats(userIds));
+    }
+
+    /**
+     * check in calendar of the current user for a year
+     *
+     * @param year null for the current year
+     * @return a mask per month, January first, with bit n set if day n + 1 was checked in
+     */
+    @Override
+    public Result signCalendar(Integer year) {
+        Long userId = UserHolder.getUser().getId();
+        int y = year == null ? LocalDate.now().getYear() : year;
+        List<YearMonth> months = new ArrayList<>(12);
+        int[] days = new int[12];
+        for (int i = 0; i < 12; i++) {
+            YearMonth month = YearMonth.of(y, i + 1);
+            months.add(month);
+            days[i] = month.lengthOfMonth();
+        }
+        long[] bits = readSignMonths(Collections.singletonList(userId), months, days).get(0);
+        List<Integer> calendar = new ArrayList<>(12);
+        for (int i = 0; i < 12; i++) {
+            calendar.add(SignBits.calendar(bits[i], days[i]));
+        }
+        return Result.ok(calendar);
+    }
+
+    private List<SignStats> querySignStats(List<Long> userIds) {
+        LocalDate today = LocalDate.now();
+        YearMonth current = YearMonth.from(today);
+        int n = SystemConstants.SIGN_STATS_MONTHS;
+        List<YearMonth> months = new ArrayList<>(n);
+        int[] days = new int[n];
+        for (int i = 0; i < n; i++) {
+            YearMonth month = current.minusMonths(n - 1 - i);
+            months.add(month);
+//            the current month is read up to today, so its trailing ones end today
+            days[i] = month.equals(current) ? today.getDayOfMonth() : month.lengthOfMonth();
+        }
+        List<long[]> bits = readSignMonths(userIds, months, days);
+        List<SignStats> stats = new ArrayList<>(userIds.size());
+        for (int u = 0; u < userIds.size(); u++) {
+            long[] userBits = bits.get(u);
+            SignStats s = new SignStats();
+            s.setUserId(userIds.get(u));
+            s.setMonthCount(SignBits.count(userBits[n - 1]));
+            s.setCurrentStreak(SignBits.currentStreak(userBits, days));
+            s.setLongestStreak(SignBits.longestStreak(userBits, days));
+            stats.add(s);
+        }
+        return stats;
+    }
+
+    /**
+     * Read months of check in bitmaps of users with one pipeline of BITFIELD GET u{days} #0.
+     *
+     * @param months consecutive months, oldest first
+     * @param days   days to read of each month
+     * @return per user, the bits of each month as described in SignBits
+     */
+    private List<long[]> readSignMonths(List<Long> userIds, List<YearMonth> months, int[] days) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long userId : userIds) {
+                for (int i = 0; i < months.size(); i++) {
+                    conn.bitfield(signKey(userId, months.get(i)), BitFieldSubCommands.create()
+                            .get(BitFieldSubCommands.BitFieldType.unsigned(days[i])).valueAt(0));
+                }
+            }
+            return null;
+        });
+        List<long[]> bits = new ArrayList<>(userIds.size());
+        int r = 0;
+        for (int u = 0; u < userIds.size(); u++) {
+            long[] userBits = new long[months.size()];
+            for (int i = 0; i < months.size(); i++) {
+                List<?> value = (List<?>) results.get(r++);
+                Object word = value == null || value.isEmpty() ? null : value.get(0);
+                userBits[i] = word == null ? 0 : ((Number) word).longValue();
             }
-//        Shift the number to the right by one bit, discard the last bit, and move on to the next bit
-            num >>>= 1;
+            bits.add(userBits);
         }
-        return Result.ok(count);
+        return bits;
+    }
+
+    /**
+     * sign:{userId}{yyyyMM}
+     */
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + month.format(DateTimeFormatter.ofPattern("yyyyMM"));
+    }
+
+    /**
+     * query users as UserDTO through the user cache, one MGET for the cached users and one
+     * query for the rest
+     *
+     * @param ids
+     * @return users found, in ids order
+     */
+    @Override
+    public List<UserDTO> queryUserDTOs(List<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(
+                CACHE_USER_KEY, ids, UserDTO.class, this::loadUserDTOs, UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    private List<UserDTO> loadUserDTOs(Collection<Long> ids) {
+        return listByIds(ids).stream()
+                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Edit the nick name and icon of the current user. The row is read back and written
+     * through to the user cache, so blog, feed and follow pages show the edit right away, and
+     * to the caller's session, so /user/me does too.
+     *
+     * @param profile nick name and icon, null to keep
+     * @param token   login token of the caller
+     * @return the login token to use from now on, a new one in the signed session mode
+     */
+    @Override
+    public Result updateProfile(UserDTO profile, String token) {
+        if (profile.getNickName() == null && profile.getIcon() == null) {
+            return Result.fail("nothing to update");
+        }
+        if (profile.getNickName() != null
+                && (StrUtil.isBlank(profile.getNickName()) || profile.getNickName().length() > 32)) {
+            return Result.fail("the nick name must be 1 to 32 characters");
+        }
+        Long userId = UserHolder.getUser().getId();
+        User edit = new User();
+        edit.setId(userId);
+        edit.setNickName(profile.getNickName());
+        edit.setIcon(profile.getIcon());
+        updateById(edit);
+        List<UserDTO> users = loadUserDTOs(Collections.singletonList(userId));
+        if (users.isEmpty()) {
+            return Result.ok(token);
+        }
+        cacheClient.set(CACHE_USER_KEY + userId, users.get(0), CACHE_USER_TTL, TimeUnit.MINUTES);
+        return Result.ok(sessionTokens.update(token, users.get(0)));
+    }
+
+    /**
+     * The user of a phone number, created if there is none. The user id of a phone never
+     * changes, so it is cached for CACHE_USER_PHONE_TTL and the user itself is read through
+     * the user cache; logins of known users do not query tb_user.
+     *
+     * @param phone
+     * @return
+     */
+    private UserDTO queryUserDTOByPhone(String phone) {
+        String phoneKey = CACHE_USER_PHONE_KEY + phone;
+        String cachedId = stringRedisTemplate.opsForValue().get(phoneKey);
+        if (cachedId != null) {
+            List<UserDTO> users = queryUserDTOs(Collections.singletonList(Long.valueOf(cachedId)));
+            if (!users.isEmpty()) {
+                return users.get(0);
+            }
+        }
+        User user = query().eq("phone", phone).one();
+        if (user == null) {
+            user = createUserWithPhone(phone);
+        }
+        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+//        write the user through, the id of a new user may hold a Negative Cache Entry
+        cacheClient.set(CACHE_USER_KEY + user.getId(), userDTO, CACHE_USER_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.opsForValue().set(phoneKey, user.getId().toString(), CACHE_USER_PHONE_TTL, TimeUnit.MINUTES);
+        return userDTO;
     }
 
     private User createUserWithPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
-        save(user);
-        return null;
+        try {
+            save(user);
+        } catch (DuplicateKeyException e) {
+//            a concurrent first login of the same phone created the user
+            return query().eq("phone", phone).one();
+        }
+        return user;
     }
 }
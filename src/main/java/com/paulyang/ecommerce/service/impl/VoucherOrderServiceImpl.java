@@ -8,6 +8,7 @@ import com.paulyang.ecommerce.mapper.VoucherOrderMapper;
 import com.paulyang.ecommerce.service.ISeckillVoucherService;
 import com.paulyang.ecommerce.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.paulyang.ecommerce.utils.ContextExecutorService;
 import com.paulyang.ecommerce.utils.RedisIdWorker;
 import com.paulyang.ecommerce.utils.MutexRedisLock;
 import com.paulyang.ecommerce.utils.UserHolder;
@@ -70,7 +71,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR = new ContextExecutorService(Executors.newSingleThreadExecutor());
 
     @PostConstruct
     private void init() {
@@ -0,0 +1,115 @@
+package com.paulyang.ecommerce.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.paulyang.ecommerce.utils.RedisConstants.*;
+
+/**
+ * Records daily activity in global bitmaps indexed by user id: active:day:{yyyyMMdd} for users
+ * seen that day and sign:day:{yyyyMMdd} for users who checked in. Each instance sets a user's
+ * active bit at most once a day, off the request thread.
+ */
+@Slf4j
+@Component
+public class ActivityTracker {
+
+    public static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${app.analytics.bitmap-days:400}")
+    private long bitmapDays;
+
+    private static final ExecutorService ACTIVITY_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * users whose active bit this instance already set on markedDay, indexed by user id like
+     * the bitmaps, so a day of 10M users takes about 1.2 MB; guarded by itself
+     */
+    private final BitSet marked = new BitSet();
+    private LocalDate markedDay = LocalDate.now();
+
+    public static String activeDayKey(LocalDate day) {
+        return ACTIVE_DAY_KEY + day.format(DAY_FORMAT);
+    }
+
+    public static String signDayKey(LocalDate day) {
+        return SIGN_DAY_KEY + day.format(DAY_FORMAT);
+    }
+
+    /**
+     * Best effort, never throws: a user that cannot be tracked is logged and skipped so the
+     * request resolving the user is not failed by it.
+     *
+     * @param userId a user seen in a request today, an auto-increment id within int range
+     */
+    public void markActive(Long userId) {
+        if (userId == null || userId < 0 || userId > Integer.MAX_VALUE) {
+            log.warn("user {} not marked active, id out of bitmap range", userId);
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        int index = userId.intValue();
+        synchronized (marked) {
+            if (!today.equals(markedDay)) {
+                markedDay = today;
+                marked.clear();
+            }
+            if (marked.get(index)) {
+                return;
+            }
+            marked.set(index);
+        }
+        try {
+            ACTIVITY_EXECUTOR.submit(() -> {
+                try {
+                    setBit(activeDayKey(today), userId);
+                } catch (Exception e) {
+                    log.warn("failed to mark user {} active", userId, e);
+                    unmark(today, index);
+                }
+            });
+        } catch (Exception e) {
+            log.warn("failed to mark user {} active", userId, e);
+            unmark(today, index);
+        }
+    }
+
+    private void unmark(LocalDate day, int index) {
+        synchronized (marked) {
+            if (day.equals(markedDay)) {
+                marked.clear(index);
+            }
+        }
+    }
+
+    /**
+     * @param userId a user who checked in today
+     */
+    public void markSigned(Long userId) {
+        setBit(signDayKey(LocalDate.now()), userId);
+    }
+
+    private void setBit(String key, Long userId) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.setBit(key, userId, true);
+            conn.expire(key, TimeUnit.DAYS.toSeconds(bitmapDays));
+            return null;
+        });
+    }
+}
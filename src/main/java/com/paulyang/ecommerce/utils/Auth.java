@@ -0,0 +1,51 @@
+package com.paulyang.ecommerce.utils;
+
+import org.springframework.web.method.HandlerMethod;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares whether a handler needs the logged in user. On a controller it applies to all of
+ * its handlers, a handler's own annotation wins. Handlers without one need the user.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Auth {
+
+    Level value();
+
+    enum Level {
+        /**
+         * the request is rejected with 401 without a logged in user
+         */
+        REQUIRED,
+        /**
+         * as REQUIRED, and rejected with 403 unless the user is one of {@code app.admin.user-ids}
+         */
+        ADMIN,
+        /**
+         * the user is used when logged in, the session is only resolved if the handler asks
+         * UserHolder for it
+         */
+        OPTIONAL,
+        /**
+         * the user is never used, the session is not resolved
+         */
+        NONE;
+
+        public static Level of(Object handler) {
+            if (!(handler instanceof HandlerMethod)) {
+                return REQUIRED;
+            }
+            HandlerMethod method = (HandlerMethod) handler;
+            Auth auth = method.getMethodAnnotation(Auth.class);
+            if (auth == null) {
+                auth = method.getBeanType().getAnnotation(Auth.class);
+            }
+            return auth == null ? REQUIRED : auth.value();
+        }
+    }
+}
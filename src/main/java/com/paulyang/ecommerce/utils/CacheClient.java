@@ -1,19 +1,36 @@
 package com.paulyang.ecommerce.utils;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.paulyang.ecommerce.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 import org.yaml.snakeyaml.events.Event;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 import static com.paulyang.ecommerce.utils.RedisConstants.*;
@@ -23,6 +40,19 @@ import static com.paulyang.ecommerce.utils.RedisConstants.*;
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
 
+    private static final DefaultRedisScript<Long> VERSION_SCRIPT;
+
+    static {
+        VERSION_SCRIPT = new DefaultRedisScript<>();
+        VERSION_SCRIPT.setLocation(new ClassPathResource("cache_version.lua"));
+        VERSION_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * How long a version stamp outlives its last write, in days
+     */
+    private static final long VERSION_TTL_DAYS = 1;
+
     public CacheClient(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
@@ -84,6 +114,68 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * Batch form of {@link #queryWithPassThrough} for hydrating an ordered id list, e.g. a feed
+     * page or the top likers of a blog.
+     *
+     * <p>Cache Strategy:</p>
+     * <ul>
+     *   <li>Cache Hits: all keys are read with a single MGET</li>
+     *   <li>Cache Misses: loaded together with one {@code dbFallback} call (a plain IN query)
+     *       and written back in one pipeline, only where the key is still absent, so a value
+     *       written through by an update during the load is not replaced by the older row</li>
+     *   <li>Null Protection: ids the database does not return get a Negative Cache Entry</li>
+     *   <li>Ordering: results follow the order of {@code ids}, so callers need no ORDER BY FIELD</li>
+     * </ul>
+     *
+     * @param <R> the return type of the cached objects
+     * @param <ID> the type of the identifiers used for caching
+     * @param keyPrefix the Redis key prefix for cache storage
+     * @param ids the identifiers, in the order the results should be returned
+     * @param type the Class type for JSON deserialization
+     * @param dbFallback loads the records of the missed ids in one query, in any order
+     * @param idGetter extracts the identifier of a loaded record
+     * @param time the cache TTL
+     * @param unit the time unit of the TTL
+     * @return the records found, in {@code ids} order; absent records are skipped
+     */
+    public <R, ID> List<R> queryBatchWithPassThrough(String keyPrefix, List<ID> ids, Class<R> type,
+                                                     Function<Collection<ID>, List<R>> dbFallback,
+                                                     Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> jsons = multiGet(keyPrefix, ids);
+        Map<ID, R> found = new HashMap<>(ids.size());
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                found.put(ids.get(i), JSONUtil.toBean(json, type));
+            } else if (!isNegativeCacheHit(json)) {
+                misses.add(ids.get(i));
+            }
+        }
+        if (!misses.isEmpty()) {
+            Map<ID, R> loaded = loadMisses(misses, dbFallback, idGetter);
+            found.putAll(loaded);
+            long seconds = unit.toSeconds(time);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (ID id : misses) {
+                    R r = loaded.get(id);
+                    if (r == null) {
+                        conn.set(keyPrefix + id, "", Expiration.seconds(TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL)), SetOption.SET_IF_ABSENT);
+                    } else {
+                        conn.set(keyPrefix + id, JSONUtil.toJsonStr(r), Expiration.seconds(seconds), SetOption.SET_IF_ABSENT);
+                    }
+                }
+                return null;
+            });
+        }
+        return inOrder(ids, found);
+    }
+
     /**
      * Tests whether the cached payload is a Negative Cache Entry: a non-null but
      * blank value recorded to mark that the backing record is known to be absent.
@@ -106,7 +198,7 @@ public class CacheClient {
         stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = new ContextExecutorService(Executors.newFixedThreadPool(10));
 
     /**
      * Query with logical expiration to prevent cache breakdown in high-concurrency scenarios.
@@ -179,6 +271,356 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * Batch form of {@link #queryWithLogicalExpire} for hydrating an ordered id list, e.g. a page
+     * of nearby shops.
+     *
+     * <p>All keys are read with a single MGET. Logically expired entries are served as they are
+     * while one reader per key rebuilds them in the background (Stale-on-expiry Read). Missing
+     * entries are loaded together with one {@code dbFallback} call and written back in one
+     * pipeline, so a cold page costs one IN query instead of one query per id.</p>
+     *
+     * @param <R> the return type of the cached objects
+     * @param <ID> the type of the identifiers used for caching
+     * @param keyPrefix the Redis key prefix for cache storage
+     * @param ids the identifiers, in the order the results should be returned
+     * @param type the Class type for JSON deserialization
+     * @param dbFallback loads the records of the given ids in one query, in any order
+     * @param idGetter extracts the identifier of a loaded record
+     * @param time the logical expiration time duration
+     * @param unit the time unit for the expiration duration
+     * @return the records found, in {@code ids} order; absent records are skipped
+     */
+    public <R, ID> List<R> queryBatchWithLogicalExpire(String keyPrefix, List<ID> ids, Class<R> type,
+                                                       Function<Collection<ID>, List<R>> dbFallback,
+                                                       Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> jsons = multiGet(keyPrefix, ids);
+        Map<ID, R> found = new HashMap<>(ids.size());
+        List<ID> misses = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < ids.size(); i++) {
+            ID id = ids.get(i);
+            String json = jsons.get(i);
+            if (json == null) {
+                misses.add(id);
+                continue;
+            }
+            if (isNegativeCacheHit(json)) {
+                continue;
+            }
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            found.put(id, JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            if (redisData.getExpireTime().isBefore(now)) {
+                rebuildAsync(keyPrefix, id, dbFallback, time, unit);
+            }
+        }
+        if (!misses.isEmpty()) {
+            Map<ID, R> loaded = loadMisses(misses, dbFallback, idGetter);
+            found.putAll(loaded);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (ID id : misses) {
+                    R r = loaded.get(id);
+                    if (r == null) {
+                        conn.setEx(keyPrefix + id, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), "");
+                    } else {
+                        RedisData redisData = new RedisData();
+                        redisData.setData(r);
+                        redisData.setExpireTime(now.plusSeconds(unit.toSeconds(time)));
+                        conn.set(keyPrefix + id, JSONUtil.toJsonStr(redisData));
+                    }
+                }
+                return null;
+            });
+        }
+        return inOrder(ids, found);
+    }
+
+    /**
+     * Rebuilds one logically expired key in the background if this caller wins the Rebuild Lock.
+     * The lock is keyed by the cache key itself, so entity types sharing an id never contend.
+     */
+    private <R, ID> void rebuildAsync(String keyPrefix, ID id, Function<Collection<ID>, List<R>> dbFallback,
+                                      Long time, TimeUnit unit) {
+        String rebuildLockKey = "lock:" + keyPrefix + id;
+        if (!acquireRebuildLock(rebuildLockKey)) {
+            return;
+        }
+        CACHE_REBUILD_EXECUTOR.submit(() -> {
+            try {
+                List<R> rs = dbFallback.apply(Collections.singletonList(id));
+                if (rs.isEmpty()) {
+                    writeNegativeCacheEntry(keyPrefix + id);
+                } else {
+                    this.setWithLogicalExpire(keyPrefix + id, rs.get(0), time, unit);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                releaseRebuildLock(rebuildLockKey);
+            }
+        });
+    }
+
+    /**
+     * Batch read of Versioned Cache Entries: a hash per record holding the JSON body, the
+     * version stamp it was loaded at and one counter field kept outside the body. The counter
+     * (e.g. a like count) is changed in place with HINCRBY, so counter updates never invalidate
+     * the body, and since body and counter are read with one HMGET a reader never sees a torn
+     * mix of the two.
+     *
+     * <p>Cache Strategy:</p>
+     * <ul>
+     *   <li>Cache Hits: one pipelined HMGET per record, in a single round trip</li>
+     *   <li>Cache Misses: the version stamps are read first, the records loaded with one
+     *       {@code dbFallback} call, then written back with cache_version.lua, which skips any
+     *       record whose version moved in between (see {@link #writeWithVersion})</li>
+     *   <li>Counter Deltas: pending changes of the counter not yet flushed to the database are
+     *       read from {@code counterDeltaKeys} and added when the record is written back</li>
+     *   <li>Null Protection: ids the database does not return get a Negative Cache Entry</li>
+     * </ul>
+     *
+     * @param <R> the return type of the cached objects
+     * @param <ID> the type of the identifiers used for caching
+     * @param keyPrefix the Redis key prefix for cache storage
+     * @param versionPrefix the Redis key prefix of the version stamps
+     * @param ids the identifiers, in the order the results should be returned
+     * @param type the Class type for JSON deserialization
+     * @param dbFallback loads the records of the missed ids in one query, in any order
+     * @param idGetter extracts the identifier of a loaded record
+     * @param counterField the property of {@code R} kept as a counter field
+     * @param counterDeltaKeys hashes of pending counter deltas, by record id
+     * @param time the cache TTL
+     * @param unit the time unit of the TTL
+     * @return the records found, in {@code ids} order; absent records are skipped
+     */
+    public <R, ID> List<R> queryBatchWithVersion(String keyPrefix, String versionPrefix, List<ID> ids, Class<R> type,
+                                                 Function<Collection<ID>, List<R>> dbFallback, Function<R, ID> idGetter,
+                                                 String counterField, List<String> counterDeltaKeys,
+                                                 Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Object> entries = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ID id : ids) {
+                conn.hMGet(keyPrefix + id, "body", counterField);
+            }
+            return null;
+        });
+        Map<ID, R> found = new HashMap<>(ids.size());
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            @SuppressWarnings("unchecked")
+            List<String> entry = (List<String>) entries.get(i);
+            String body = entry.get(0);
+            if (StrUtil.isNotBlank(body)) {
+                R r = JSONUtil.toBean(body, type);
+                BeanUtil.setFieldValue(r, counterField, entry.get(1));
+                found.put(ids.get(i), r);
+            } else if (!isNegativeCacheHit(body)) {
+                misses.add(ids.get(i));
+            }
+        }
+        if (misses.isEmpty()) {
+            return inOrder(ids, found);
+        }
+        // read the versions before loading, a write that starts afterwards moves them
+        List<String> versions = multiGet(versionPrefix, misses);
+        Map<ID, R> loaded = loadMisses(misses, dbFallback, idGetter);
+        found.putAll(loaded);
+        List<String[]> calls = new ArrayList<>(misses.size());
+        for (int i = 0; i < misses.size(); i++) {
+            ID id = misses.get(i);
+            R r = loaded.get(id);
+            List<String> keysAndArgs = new ArrayList<>();
+            keysAndArgs.add(keyPrefix + id);
+            keysAndArgs.add(versionPrefix + id);
+            keysAndArgs.add(writersKey(versionPrefix + id));
+            keysAndArgs.addAll(counterDeltaKeys);
+            keysAndArgs.add(versions.get(i) == null ? "0" : versions.get(i));
+            if (r == null) {
+                keysAndArgs.addAll(Arrays.asList("", counterField, "0", id.toString(),
+                        String.valueOf(TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL))));
+            } else {
+                Object counter = BeanUtil.getFieldValue(r, counterField);
+                keysAndArgs.addAll(Arrays.asList(JSONUtil.toJsonStr(r), counterField,
+                        counter == null ? "0" : counter.toString(), id.toString(), String.valueOf(unit.toSeconds(time))));
+            }
+            calls.add(keysAndArgs.toArray(new String[0]));
+        }
+        evalShaPipelined(VERSION_SCRIPT, 3 + counterDeltaKeys.size(), calls);
+        return inOrder(ids, found);
+    }
+
+    /**
+     * Runs a script once per entry of {@code calls} in one pipeline, by its SHA1. The script
+     * text is only sent when redis does not have it cached (NOSCRIPT), once for the pipeline,
+     * which is then run again; nothing ran the first time as every call failed alike.
+     *
+     * @param script the script
+     * @param numKeys number of keys at the start of each call
+     * @param calls keys and args of each call
+     */
+    private void evalShaPipelined(DefaultRedisScript<Long> script, int numKeys, List<String[]> calls) {
+        RedisCallback<Object> pipeline = connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String[] keysAndArgs : calls) {
+                conn.evalSha(script.getSha1(), ReturnType.INTEGER, numKeys, keysAndArgs);
+            }
+            return null;
+        };
+        try {
+            stringRedisTemplate.executePipelined(pipeline);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    ((StringRedisConnection) connection).scriptLoad(script.getScriptAsString()));
+            stringRedisTemplate.executePipelined(pipeline);
+        }
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs a database write to a record cached with {@link #queryBatchWithVersion}. The version
+     * stamp is bumped before and after the write, and the writer is counted in
+     * {@link #writersKey} while the write is in progress: a reader that loaded the record
+     * before or during the write cannot cache what it read, however many writers overlap.
+     * The write itself should delete the cache entry if it changed the body.
+     *
+     * @param versionKey the version stamp of the record
+     * @param write the database write
+     */
+    public void writeWithVersion(String versionKey, Runnable write) {
+        String writersKey = writersKey(versionKey);
+        // counted before the first bump and uncounted after the last, so a loader that read
+        // either bump still sees the writer or a moved version
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.incr(writersKey);
+            conn.expire(writersKey, TimeUnit.DAYS.toSeconds(VERSION_TTL_DAYS));
+            conn.incr(versionKey);
+            conn.expire(versionKey, TimeUnit.DAYS.toSeconds(VERSION_TTL_DAYS));
+            return null;
+        });
+        try {
+            write.run();
+        } finally {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.incr(versionKey);
+                conn.expire(versionKey, TimeUnit.DAYS.toSeconds(VERSION_TTL_DAYS));
+                conn.decr(writersKey);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Writes the counter changes collected in a delta hash to the database, one write per record.
+     * The hash is renamed to {@link #flushingKey} first, so new changes keep landing in a fresh
+     * hash while the batch is written; each record is removed from the renamed hash once its
+     * write is done, so a flush interrupted by a crash resumes where it stopped instead of
+     * replaying the batch. The write and the removal run inside {@link #writeWithVersion}, so a
+     * record loaded meanwhile is not cached with the delta counted twice.
+     *
+     * @param deltaKey hash of pending counter deltas, by record id
+     * @param versionPrefix the Redis key prefix of the version stamps
+     * @param lock held while the batch is written, so no other instance applies the same deltas
+     * @param write applies a non-zero delta to the record with the given id
+     */
+    public void flushCounterDeltas(String deltaKey, String versionPrefix, Lock lock, BiConsumer<String, Long> write) {
+        String flushingKey = flushingKey(deltaKey);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // a previous flush may have stopped half way, finish it before taking new deltas
+            if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(flushingKey))) {
+                if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(deltaKey))) {
+                    return;
+                }
+                stringRedisTemplate.rename(deltaKey, flushingKey);
+            }
+            Map<Object, Object> deltas = stringRedisTemplate.opsForHash().entries(flushingKey);
+            for (Map.Entry<Object, Object> entry : deltas.entrySet()) {
+                String id = entry.getKey().toString();
+                long delta = Long.parseLong(entry.getValue().toString());
+                writeWithVersion(versionPrefix + id, () -> {
+                    if (delta != 0) {
+                        write.accept(id, delta);
+                    }
+                    stringRedisTemplate.opsForHash().delete(flushingKey, id);
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The hash a delta hash is renamed to while {@link #flushCounterDeltas} writes it out
+     *
+     * @param deltaKey hash of pending counter deltas
+     * @return the key of the batch being flushed
+     */
+    public static String flushingKey(String deltaKey) {
+        return deltaKey + ":flushing";
+    }
+
+    /**
+     * Number of writes in progress to the record of a version stamp, see {@link #writeWithVersion}
+     *
+     * @param versionKey the version stamp of the record
+     * @return the key of the counter
+     */
+    public static String writersKey(String versionKey) {
+        return versionKey + ":writers";
+    }
+
+    private <ID> List<String> multiGet(String keyPrefix, List<ID> ids) {
+        List<String> keys = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            keys.add(keyPrefix + id);
+        }
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        // null only inside a pipeline or transaction, treat as all misses
+        return jsons == null ? Collections.nCopies(ids.size(), null) : jsons;
+    }
+
+    private <R, ID> Map<ID, R> loadMisses(List<ID> misses, Function<Collection<ID>, List<R>> dbFallback,
+                                          Function<R, ID> idGetter) {
+        Map<ID, R> loaded = new HashMap<>(misses.size());
+        for (R r : dbFallback.apply(misses)) {
+            loaded.put(idGetter.apply(r), r);
+        }
+        return loaded;
+    }
+
+    private static <R, ID> List<R> inOrder(List<ID> ids, Map<ID, R> found) {
+        List<R> rs = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                rs.add(r);
+            }
+        }
+        return rs;
+    }
+
     /**
      * Attempts to take the Rebuild Lock: a single-holder marker so that exactly
      * one reader reconstructs a logically expired key while others are served
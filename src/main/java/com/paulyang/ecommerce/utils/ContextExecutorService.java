@@ -0,0 +1,52 @@
+package com.paulyang.ecommerce.utils;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor running every task in the {@link RequestContext} of the thread that submitted
+ * it. submit, invokeAll and CompletableFuture stages given this executor all go through
+ * {@link #execute}, so a task started by a request sees its user and trace id. Each task
+ * submitted inside a request is wrapped in one extra Runnable, see
+ * {@link RequestContext#wrapRunnable(Runnable)}.
+ */
+public class ContextExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+
+    public ContextExecutorService(ExecutorService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(RequestContext.wrapRunnable(command));
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,82 @@
+package com.paulyang.ecommerce.utils;
+
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * K-way merge of feed sorted sets (the reader's inbox and the outboxes of the authors it pulls),
+ * producing the same page a single ZREVRANGEBYSCORE key max 0 LIMIT offset count would return
+ * if all sources were one sorted set.
+ *
+ * <p>Each source must hold the first {@code offset + count} entries with score at most
+ * {@code max}, ordered the way ZREVRANGEBYSCORE returns them: score descending, then member
+ * descending. The merge uses the same order, so entries sharing a timestamp are skipped by
+ * {@code offset} consistently across pages. A blog present in several sources is returned once.</p>
+ */
+public class FeedMerger {
+
+    private static final Comparator<ZSetOperations.TypedTuple<String>> NEWEST_FIRST =
+            Comparator.comparing(ZSetOperations.TypedTuple<String>::getScore, Comparator.reverseOrder())
+                    .thenComparing(ZSetOperations.TypedTuple::getValue, Comparator.reverseOrder());
+
+    private FeedMerger() {
+    }
+
+    /**
+     * @param sources entries of each source, newest first
+     * @param offset  number of merged entries to skip, as in the scroll cursor
+     * @param count   page size
+     * @return at most {@code count} entries, newest first
+     */
+    public static List<ZSetOperations.TypedTuple<String>> merge(
+            List<? extends Collection<ZSetOperations.TypedTuple<String>>> sources, int offset, int count) {
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                (a, b) -> NEWEST_FIRST.compare(a.tuple, b.tuple));
+        for (Collection<ZSetOperations.TypedTuple<String>> source : sources) {
+            if (source == null) {
+                continue;
+            }
+            Iterator<ZSetOperations.TypedTuple<String>> it = source.iterator();
+            if (it.hasNext()) {
+                heads.offer(new Head(it.next(), it));
+            }
+        }
+        List<ZSetOperations.TypedTuple<String>> page = new ArrayList<>(count);
+        Set<String> seen = new HashSet<>();
+        int skipped = 0;
+        while (!heads.isEmpty() && page.size() < count) {
+            Head head = heads.poll();
+            ZSetOperations.TypedTuple<String> tuple = head.tuple;
+            if (head.rest.hasNext()) {
+                heads.offer(new Head(head.rest.next(), head.rest));
+            }
+            if (!seen.add(tuple.getValue())) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            page.add(tuple);
+        }
+        return page;
+    }
+
+    private static final class Head {
+        private final ZSetOperations.TypedTuple<String> tuple;
+        private final Iterator<ZSetOperations.TypedTuple<String>> rest;
+
+        Head(ZSetOperations.TypedTuple<String> tuple, Iterator<ZSetOperations.TypedTuple<String>> rest) {
+            this.tuple = tuple;
+            this.rest = rest;
+        }
+    }
+}
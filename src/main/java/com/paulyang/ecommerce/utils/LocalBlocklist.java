@@ -0,0 +1,52 @@
+package com.paulyang.ecommerce.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process list of keys (phones, IPs) rejected until a point in time, checked before asking
+ * Redis so a client that keeps retrying after being limited costs no round trip. Each
+ * instance learns a block from the Redis limiter reply, so it never blocks longer than Redis
+ * would.
+ */
+public class LocalBlocklist {
+
+    private final int maxSize;
+    private final Map<String, Long> blockedUntil = new ConcurrentHashMap<>();
+
+    public LocalBlocklist(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param key
+     * @param now epoch milliseconds
+     * @return milliseconds the key stays blocked, 0 if it is not blocked
+     */
+    public long remaining(String key, long now) {
+        Long until = blockedUntil.get(key);
+        if (until == null) {
+            return 0;
+        }
+        if (until <= now) {
+            blockedUntil.remove(key, until);
+            return 0;
+        }
+        return until - now;
+    }
+
+    /**
+     * @param key
+     * @param until epoch milliseconds
+     */
+    public void block(String key, long until) {
+        if (blockedUntil.size() >= maxSize) {
+            long now = System.currentTimeMillis();
+            blockedUntil.values().removeIf(blocked -> blocked <= now);
+            if (blockedUntil.size() >= maxSize) {
+                return;
+            }
+        }
+        blockedUntil.merge(key, until, Math::max);
+    }
+}
@@ -1,20 +1,39 @@
 package com.paulyang.ecommerce.utils;
 
+import com.paulyang.ecommerce.dto.UserDTO;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 public class LoginInterceptor implements HandlerInterceptor {
 
+    private Set<Long> adminUserIds;
+
+    public LoginInterceptor(Long[] adminUserIds) {
+        this.adminUserIds = new HashSet<>(Arrays.asList(adminUserIds));
+    }
+
     @Override
     public boolean preHandle(HttpServletRequest request,
                              HttpServletResponse response,
                              Object handler) throws Exception {
-        if (UserHolder.getUser() == null) {
+        Auth.Level level = Auth.Level.of(handler);
+        if (level != Auth.Level.REQUIRED && level != Auth.Level.ADMIN) {
+            return true;
+        }
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
             response.setStatus(401);
             return false;
         }
+        if (level == Auth.Level.ADMIN && !adminUserIds.contains(user.getId())) {
+            response.setStatus(403);
+            return false;
+        }
         return true;
     }
 
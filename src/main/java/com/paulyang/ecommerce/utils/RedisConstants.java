@@ -6,7 +6,7 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 
-@Component
+@Component("redisConstants")
 public class RedisConstants {
     
     @Autowired
@@ -14,13 +14,29 @@ public class RedisConstants {
     
     public static String LOGIN_CODE_KEY;
     public static Long LOGIN_CODE_TTL;
+    public static String LOGIN_CODE_PHONE_LIMIT_KEY;
+    public static String LOGIN_CODE_IP_LIMIT_KEY;
     public static String LOGIN_USER_KEY;
     public static Long LOGIN_USER_TTL;
+    public static String SESSION_INVALIDATE_CHANNEL;
+    public static String SESSION_REVOKED_KEY;
     
     public static Long CACHE_NULL_TTL;
     public static Long CACHE_SHOP_TTL;
     public static String CACHE_SHOP_KEY;
     public static String CACHE_SHOP_TYPE;
+    public static String CACHE_SHOP_GEO_KEY;
+    public static Long CACHE_SHOP_GEO_TTL;
+    public static String CACHE_BLOG_KEY;
+    public static Long CACHE_BLOG_TTL;
+    public static String CACHE_USER_KEY;
+    public static Long CACHE_USER_TTL;
+    public static String CACHE_USER_PHONE_KEY;
+    public static Long CACHE_USER_PHONE_TTL;
+    public static String CACHE_USER_INFO_KEY;
+    public static Long CACHE_USER_INFO_TTL;
+    public static String CACHE_COMMENT_KEY;
+    public static Long CACHE_COMMENT_TTL;
     
     public static String LOCK_SHOP_KEY;
     public static String LOCK_ORDER_KEY;
@@ -28,21 +44,61 @@ public class RedisConstants {
     
     public static String SECKILL_STOCK_KEY;
     public static String BLOG_LIKED_KEY;
+    public static String BLOG_LIKE_DELTA_KEY;
+    public static String BLOG_LIKERS_KEY;
+    public static String BLOG_LIKE_BLOOM_KEY;
+    public static String BLOG_HOT_KEY;
+    public static String BLOG_VERSION_KEY;
+    public static String BLOG_COMMENTS_KEY;
+    public static String BLOG_COMMENT_DELTA_KEY;
     public static String FEED_KEY;
+    public static String FEED_STREAM_KEY;
+    public static String FEED_FANOUT_KEY;
+    public static String FEED_OUTBOX_KEY;
+    public static String FEED_BIG_AUTHOR_KEY;
+    public static String FEED_ACTIVE_KEY;
+    public static String FOLLOWS_KEY;
+    public static String FOLLOWS_VERSION_KEY;
+    public static String FOLLOWER_COUNT_KEY;
+    public static Long FOLLOWER_COUNT_TTL;
+    public static String FOLLOWERS_KEY;
+    public static String FOLLOWERS_VERSION_KEY;
     public static String SHOP_GEO_KEY;
+    public static String SHOP_GEO_VERSION_KEY;
+    public static String SHOP_RANK_KEY;
+    public static String SHOP_RANK_VERSION_KEY;
     public static String USER_SIGN_KEY;
+    public static String SIGN_DAY_KEY;
+    public static String ACTIVE_DAY_KEY;
+    public static String USER_LIKES_KEY;
     
     @PostConstruct
     public void init() {
         LOGIN_CODE_KEY = redisProperties.getRedisKeys().getLoginCode();
         LOGIN_CODE_TTL = redisProperties.getCacheTtl().getLoginCode();
+        LOGIN_CODE_PHONE_LIMIT_KEY = redisProperties.getRedisKeys().getLoginCodePhoneLimit();
+        LOGIN_CODE_IP_LIMIT_KEY = redisProperties.getRedisKeys().getLoginCodeIpLimit();
         LOGIN_USER_KEY = redisProperties.getRedisKeys().getLoginUser();
         LOGIN_USER_TTL = redisProperties.getCacheTtl().getLoginUser();
+        SESSION_INVALIDATE_CHANNEL = redisProperties.getRedisKeys().getSessionInvalidate();
+        SESSION_REVOKED_KEY = redisProperties.getRedisKeys().getSessionRevoked();
         
         CACHE_NULL_TTL = redisProperties.getCacheTtl().getCacheNull();
         CACHE_SHOP_TTL = redisProperties.getCacheTtl().getCacheShop();
         CACHE_SHOP_KEY = redisProperties.getRedisKeys().getCacheShop();
         CACHE_SHOP_TYPE = redisProperties.getRedisKeys().getCacheShopType();
+        CACHE_SHOP_GEO_KEY = redisProperties.getRedisKeys().getCacheShopGeo();
+        CACHE_SHOP_GEO_TTL = redisProperties.getCacheTtl().getCacheShopGeo();
+        CACHE_BLOG_KEY = redisProperties.getRedisKeys().getCacheBlog();
+        CACHE_BLOG_TTL = redisProperties.getCacheTtl().getCacheBlog();
+        CACHE_USER_KEY = redisProperties.getRedisKeys().getCacheUser();
+        CACHE_USER_TTL = redisProperties.getCacheTtl().getCacheUser();
+        CACHE_USER_PHONE_KEY = redisProperties.getRedisKeys().getCacheUserPhone();
+        CACHE_USER_PHONE_TTL = redisProperties.getCacheTtl().getCacheUserPhone();
+        CACHE_USER_INFO_KEY = redisProperties.getRedisKeys().getCacheUserInfo();
+        CACHE_USER_INFO_TTL = redisProperties.getCacheTtl().getCacheUserInfo();
+        CACHE_COMMENT_KEY = redisProperties.getRedisKeys().getCacheComment();
+        CACHE_COMMENT_TTL = redisProperties.getCacheTtl().getCacheComment();
         
         LOCK_SHOP_KEY = redisProperties.getRedisKeys().getLockShop();
         LOCK_ORDER_KEY = redisProperties.getRedisKeys().getLockOrder();
@@ -50,8 +106,32 @@ public class RedisConstants {
         
         SECKILL_STOCK_KEY = redisProperties.getRedisKeys().getSeckillStock();
         BLOG_LIKED_KEY = redisProperties.getRedisKeys().getBlogLiked();
+        BLOG_LIKE_DELTA_KEY = redisProperties.getRedisKeys().getBlogLikeDelta();
+        BLOG_LIKERS_KEY = redisProperties.getRedisKeys().getBlogLikers();
+        BLOG_LIKE_BLOOM_KEY = redisProperties.getRedisKeys().getBlogLikeBloom();
+        BLOG_HOT_KEY = redisProperties.getRedisKeys().getBlogHot();
+        BLOG_VERSION_KEY = redisProperties.getRedisKeys().getBlogVersion();
+        BLOG_COMMENTS_KEY = redisProperties.getRedisKeys().getBlogComments();
+        BLOG_COMMENT_DELTA_KEY = redisProperties.getRedisKeys().getBlogCommentDelta();
         FEED_KEY = redisProperties.getRedisKeys().getFeed();
+        FEED_STREAM_KEY = redisProperties.getRedisKeys().getFeedStream();
+        FEED_FANOUT_KEY = redisProperties.getRedisKeys().getFeedFanout();
+        FEED_OUTBOX_KEY = redisProperties.getRedisKeys().getFeedOutbox();
+        FEED_BIG_AUTHOR_KEY = redisProperties.getRedisKeys().getFeedBigAuthor();
+        FEED_ACTIVE_KEY = redisProperties.getRedisKeys().getFeedActive();
+        FOLLOWS_KEY = redisProperties.getRedisKeys().getFollows();
+        FOLLOWS_VERSION_KEY = redisProperties.getRedisKeys().getFollowsVersion();
+        FOLLOWER_COUNT_KEY = redisProperties.getRedisKeys().getFollowerCount();
+        FOLLOWER_COUNT_TTL = redisProperties.getCacheTtl().getFollowerCount();
+        FOLLOWERS_KEY = redisProperties.getRedisKeys().getFollowers();
+        FOLLOWERS_VERSION_KEY = redisProperties.getRedisKeys().getFollowersVersion();
         SHOP_GEO_KEY = redisProperties.getRedisKeys().getShopGeo();
+        SHOP_GEO_VERSION_KEY = redisProperties.getRedisKeys().getShopGeoVersion();
+        SHOP_RANK_KEY = redisProperties.getRedisKeys().getShopRank();
+        SHOP_RANK_VERSION_KEY = redisProperties.getRedisKeys().getShopRankVersion();
         USER_SIGN_KEY = redisProperties.getRedisKeys().getUserSign();
+        SIGN_DAY_KEY = redisProperties.getRedisKeys().getSignDay();
+        ACTIVE_DAY_KEY = redisProperties.getRedisKeys().getActiveDay();
+        USER_LIKES_KEY = redisProperties.getRedisKeys().getUserLikes();
     }
 }
@@ -1,22 +1,20 @@
 package com.paulyang.ecommerce.utils;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.StrUtil;
-import com.paulyang.ecommerce.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 public class RefreshTokenInterceptor implements HandlerInterceptor {
 
-    private StringRedisTemplate stringRedisTemplate;
+    private static final String TRACE_HEADER = "X-Trace-Id";
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    private SessionTokens sessionTokens;
+
+    public RefreshTokenInterceptor(SessionTokens sessionTokens) {
+        this.sessionTokens = sessionTokens;
     }
 
     /**
@@ -64,25 +62,24 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
     public boolean preHandle(HttpServletRequest request,
                              HttpServletResponse response,
                              Object handler) throws Exception {
+//        0.trace the request with the id of the caller, or a new one
+        String traceId = request.getHeader(TRACE_HEADER);
+        if (StrUtil.isBlank(traceId) || traceId.length() > 64) {
+            traceId = UUID.fastUUID().toString(true);
+        }
+        response.setHeader(TRACE_HEADER, traceId);
 //        1.get session
 //        get the token in the request header
         String token = request.getHeader("authorization");
-        if (StrUtil.isBlank(token)) {
-            return true;
-        }
-        String key = RedisConstants.LOGIN_USER_KEY + token;
-//        2.get the user in the session
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
-//        3.determine whether the user exists
-//        4.does not exist intercept
-        if (userMap.isEmpty()) {
+        if (StrUtil.isBlank(token) || Auth.Level.of(handler) == Auth.Level.NONE) {
+            RequestContext.set(RequestContext.of(traceId, null));
             return true;
         }
-//        5.exists save user information to thread local
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-//        6.release
-        UserHolder.saveUser(userDTO);
-        stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+//        2.get the user of the token when first asked for, from the local session cache (which also refreshes the validity period) or the signed token itself
+//        3.determine whether the user exists, does not exist UserHolder returns null
+//        4.save the resolver to the request context
+        RequestContext.set(RequestContext.of(traceId, () -> sessionTokens.resolve(token)));
+//        5.release
         return true;
     }
 
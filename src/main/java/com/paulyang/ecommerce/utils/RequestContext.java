@@ -0,0 +1,159 @@
+package com.paulyang.ecommerce.utils;
+
+import com.paulyang.ecommerce.dto.UserDTO;
+import org.slf4j.MDC;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * The request a thread works for: its trace id and its user, resolved the first time it is
+ * asked for. The whole context is one object in one thread local, so handing it to another
+ * thread copies no state: {@link #wrapRunnable(Runnable)} captures a reference to the context
+ * of the submitting thread in a wrapper task that installs it around the task, and
+ * {@link ContextExecutorService} does so for every task of an executor, including
+ * CompletableFuture stages run on it. That is one wrapper allocated per task submitted inside
+ * a request. The trace id is also put in the MDC, for the log pattern.
+ *
+ * <p>Nothing relies on InheritableThreadLocal or on pooled threads keeping state, and a thread
+ * waiting for another to resolve the user parks instead of holding a monitor, so tasks behave
+ * the same on a virtual thread per task executor.</p>
+ */
+public final class RequestContext {
+
+    /**
+     * MDC key of the trace id
+     */
+    public static final String TRACE_ID = "traceId";
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+
+    private final String traceId;
+    private final AtomicReference<Supplier<UserDTO>> resolver;
+    private final CompletableFuture<UserDTO> user = new CompletableFuture<>();
+
+    private RequestContext(String traceId, Supplier<UserDTO> userResolver) {
+        this.traceId = traceId;
+        this.resolver = new AtomicReference<>(userResolver);
+        if (userResolver == null) {
+            user.complete(null);
+        }
+    }
+
+    /**
+     * @param traceId
+     * @param userResolver resolves the user when first asked for, null for an anonymous request
+     * @return
+     */
+    public static RequestContext of(String traceId, Supplier<UserDTO> userResolver) {
+        return new RequestContext(traceId, userResolver);
+    }
+
+    /**
+     * @return the context of the current thread, null outside of a request
+     */
+    public static RequestContext current() {
+        return CURRENT.get();
+    }
+
+    public static void set(RequestContext context) {
+        CURRENT.set(context);
+        MDC.put(TRACE_ID, context.traceId);
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+        MDC.remove(TRACE_ID);
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * @return the user of the request, resolved once for all threads sharing the context
+     */
+    public UserDTO getUser() {
+        Supplier<UserDTO> userResolver = resolver.getAndSet(null);
+        if (userResolver != null) {
+            try {
+                user.complete(userResolver.get());
+            } catch (RuntimeException e) {
+                user.complete(null);
+                throw e;
+            }
+        }
+        return user.join();
+    }
+
+    /**
+     * @return the task, run in the context of the calling thread
+     */
+    public static Runnable wrapRunnable(Runnable task) {
+        RequestContext context = current();
+        if (context == null) {
+            return task;
+        }
+        return () -> {
+            RequestContext previous = current();
+            set(context);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * @return the task, run in the context of the calling thread
+     */
+    public static <T> Callable<T> wrapCallable(Callable<T> task) {
+        RequestContext context = current();
+        if (context == null) {
+            return task;
+        }
+        return () -> {
+            RequestContext previous = current();
+            set(context);
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * @return the supplier, run in the context of the calling thread, e.g. for
+     * CompletableFuture.supplyAsync on an executor that does not propagate the context
+     */
+    public static <T> Supplier<T> wrapSupplier(Supplier<T> task) {
+        RequestContext context = current();
+        if (context == null) {
+            return task;
+        }
+        return () -> {
+            RequestContext previous = current();
+            set(context);
+            try {
+                return task.get();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * a caller-runs task must leave the context of its thread as it found it
+     */
+    private static void restore(RequestContext previous) {
+        if (previous == null) {
+            clear();
+        } else {
+            set(previous);
+        }
+    }
+}
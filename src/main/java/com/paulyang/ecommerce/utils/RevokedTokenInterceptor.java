@@ -0,0 +1,34 @@
+package com.paulyang.ecommerce.utils;
+
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Rejects logged out tokens on sensitive paths. Elsewhere a token resolved by
+ * RefreshTokenInterceptor is trusted without asking Redis whether it was logged out.
+ */
+public class RevokedTokenInterceptor implements HandlerInterceptor {
+
+    private SessionTokens sessionTokens;
+
+    public RevokedTokenInterceptor(SessionTokens sessionTokens) {
+        this.sessionTokens = sessionTokens;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request,
+                             HttpServletResponse response,
+                             Object handler) throws Exception {
+        if (UserHolder.getUser() == null) {
+            return true;
+        }
+        if (sessionTokens.isRevoked(request.getHeader("authorization"))) {
+            UserHolder.removeUser();
+            response.setStatus(401);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,194 @@
+package com.paulyang.ecommerce.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.paulyang.ecommerce.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.paulyang.ecommerce.utils.RedisConstants.*;
+
+/**
+ * In-process cache of logged in users by token, in front of the login:token:{token} hashes.
+ *
+ * <p>A session read from Redis is served from memory for {@code app.session.local-ttl}
+ * milliseconds, so most requests make no Redis call at all. The Redis TTL of the session is
+ * only extended once less than LOGIN_USER_TTL minus {@code app.session.refresh-after}
+ * minutes of it remain, and off the request thread. A logout removes the session from Redis
+ * and from the cache of every instance through the session invalidation channel; the local
+ * TTL bounds how long an instance that missed the message keeps serving the session.</p>
+ */
+@Slf4j
+@Component
+@DependsOn("redisConstants")
+public class SessionCache {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${app.session.local-ttl:30000}")
+    private long localTtl;
+
+    @Value("${app.session.local-max-size:100000}")
+    private int localMaxSize;
+
+    @Value("${app.session.refresh-after:60}")
+    private long refreshAfter;
+
+    private static final ExecutorService SESSION_REFRESH_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static final DefaultRedisScript<Long> SESSION_UPDATE_SCRIPT;
+
+    static {
+        SESSION_UPDATE_SCRIPT = new DefaultRedisScript<>();
+        SESSION_UPDATE_SCRIPT.setLocation(new ClassPathResource("session_update.lua"));
+        SESSION_UPDATE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private static final class Session {
+        private final UserDTO user;
+        private final long loadedAt;
+        /**
+         * when the Redis key of the session expires, as far as this instance knows
+         */
+        private volatile long expiresAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Session(UserDTO user, long loadedAt, long expiresAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> sessions.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SESSION_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * @param token
+     * @return the logged in user of the token, null if the session does not exist
+     */
+    public UserDTO get(String token) {
+        long now = System.currentTimeMillis();
+        Session session = sessions.get(token);
+        if (session == null || now - session.loadedAt >= localTtl) {
+            session = load(token, now);
+            if (session == null) {
+                sessions.remove(token);
+                return null;
+            }
+            if (sessions.size() >= localMaxSize) {
+                evict(now);
+            }
+            sessions.put(token, session);
+        }
+        refreshIfDue(token, session, now);
+        return session.user;
+    }
+
+    /**
+     * Delete a session from Redis and from the cache of every instance.
+     *
+     * @param token
+     */
+    public void invalidate(String token) {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        sessions.remove(token);
+        stringRedisTemplate.convertAndSend(SESSION_INVALIDATE_CHANNEL, token);
+    }
+
+    /**
+     * Replace the user of a session in Redis, if it still exists, and drop it from the cache
+     * of every instance so they load the new copy.
+     *
+     * @param token
+     * @param user
+     */
+    public void update(String token, UserDTO user) {
+        List<String> fields = new ArrayList<>();
+        user.toHash().forEach((field, value) -> {
+            fields.add(field);
+            fields.add(value);
+        });
+        stringRedisTemplate.execute(SESSION_UPDATE_SCRIPT, Collections.singletonList(LOGIN_USER_KEY + token),
+                fields.toArray());
+        sessions.remove(token);
+        stringRedisTemplate.convertAndSend(SESSION_INVALIDATE_CHANNEL, token);
+    }
+
+    private Session load(String token, long now) {
+        String key = LOGIN_USER_KEY + token;
+//        the session and its remaining TTL in one round trip
+        List<Object> result = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hGetAll(key);
+            conn.pTtl(key);
+            return null;
+        });
+        Map<?, ?> userMap = (Map<?, ?>) result.get(0);
+        if (userMap == null || userMap.isEmpty()) {
+            return null;
+        }
+        Long pttl = (Long) result.get(1);
+        UserDTO user = UserDTO.fromHash(userMap);
+        return new Session(user, now, pttl == null || pttl < 0 ? Long.MAX_VALUE : now + pttl);
+    }
+
+    private void refreshIfDue(String token, Session session, long now) {
+        long ttl = TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        if (session.expiresAt - now > ttl - TimeUnit.MINUTES.toMillis(refreshAfter)
+                || !session.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        SESSION_REFRESH_EXECUTOR.submit(() -> {
+            try {
+                if (BooleanUtil.isTrue(stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES))) {
+                    session.expiresAt = now + ttl;
+                }
+            } catch (Exception e) {
+                log.warn("failed to refresh session ttl", e);
+            } finally {
+                session.refreshing.set(false);
+            }
+        });
+    }
+
+    /**
+     * make room for a session: drop the expired ones, or all of them if none has expired
+     */
+    private void evict(long now) {
+        sessions.values().removeIf(session -> now - session.loadedAt >= localTtl);
+        if (sessions.size() >= localMaxSize) {
+            sessions.clear();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.paulyang.ecommerce.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.paulyang.ecommerce.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.paulyang.ecommerce.utils.RedisConstants.*;
+
+/**
+ * Issues and resolves login tokens in one of two session modes, {@code app.session.mode}:
+ * <ul>
+ *   <li>redis: the token is a random id of a login:token:{token} hash, resolved through the
+ *   {@link SessionCache}</li>
+ *   <li>signed: the token carries the user, signed with {@code app.session.secret}, and is
+ *   resolved without Redis; logging out adds its id to the session:revoked sorted set, which
+ *   is only consulted on sensitive paths through {@link #isRevoked(String)}</li>
+ * </ul>
+ * Both modes expire tokens after LOGIN_USER_TTL.
+ */
+@Component
+public class SessionTokens {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SessionCache sessionCache;
+    @Resource
+    private ActivityTracker activityTracker;
+
+    @Value("${app.session.mode:redis}")
+    private String mode;
+
+    @Value("${app.session.secret:}")
+    private String secret;
+
+    private SignedTokenCodec codec;
+
+    @PostConstruct
+    private void init() {
+        if ("signed".equals(mode)) {
+            if (StrUtil.isBlank(secret)) {
+                throw new IllegalStateException("app.session.secret is required in the signed session mode");
+            }
+            codec = new SignedTokenCodec(secret);
+        } else if (!"redis".equals(mode)) {
+            throw new IllegalStateException("unknown app.session.mode " + mode);
+        }
+    }
+
+    /**
+     * @param user the user logging in
+     * @return a new login token of the user
+     */
+    public String issue(UserDTO user) {
+        if (codec != null) {
+            SignedTokenCodec.Claims claims = new SignedTokenCodec.Claims();
+            claims.setUser(user);
+            claims.setTokenId(UUID.randomUUID().toString(true));
+            claims.setExpiresAt(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL));
+            return codec.sign(claims);
+        }
+        String token = UUID.randomUUID().toString(true);
+        Map<String, String> userMap = user.toHash();
+        String tokenKey = LOGIN_USER_KEY + token;
+//        the session and its expiry in one round trip
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMSet(tokenKey, userMap);
+            conn.expire(tokenKey, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+            return null;
+        });
+        return token;
+    }
+
+    /**
+     * @param token
+     * @return the logged in user of the token, null if the token is not valid
+     */
+    public UserDTO resolve(String token) {
+        UserDTO user;
+        if (codec != null) {
+            SignedTokenCodec.Claims claims = codec.verify(token, System.currentTimeMillis());
+            user = claims == null ? null : claims.getUser();
+        } else {
+            user = sessionCache.get(token);
+        }
+        if (user != null) {
+            activityTracker.markActive(user.getId());
+        }
+        return user;
+    }
+
+    /**
+     * Log the token out.
+     *
+     * @param token
+     */
+    public void revoke(String token) {
+        if (codec == null) {
+            sessionCache.invalidate(token);
+            return;
+        }
+        SignedTokenCodec.Claims claims = codec.verify(token, System.currentTimeMillis());
+        if (claims == null) {
+            return;
+        }
+//        a token id only needs to stay revoked until the token expires
+        stringRedisTemplate.opsForZSet().add(SESSION_REVOKED_KEY, claims.getTokenId(), claims.getExpiresAt());
+        stringRedisTemplate.opsForZSet().removeRangeByScore(SESSION_REVOKED_KEY, 0, System.currentTimeMillis());
+    }
+
+    /**
+     * Replace the user carried by a session, e.g. after a profile edit. In the signed mode the
+     * token itself carries the user, so a token with the same id and expiry is signed again;
+     * the old token stays valid with the old user until it expires. Other sessions of the user
+     * keep their copy until they log in again.
+     *
+     * @param token
+     * @param user
+     * @return the token to use from now on
+     */
+    public String update(String token, UserDTO user) {
+        if (codec == null) {
+            sessionCache.update(token, user);
+            return token;
+        }
+        SignedTokenCodec.Claims claims = codec.verify(token, System.currentTimeMillis());
+        if (claims == null) {
+            return token;
+        }
+        claims.setUser(user);
+        return codec.sign(claims);
+    }
+
+    /**
+     * Whether a token resolved to a user has been logged out since, checked against Redis.
+     * Meant for sensitive paths only: other paths accept a resolved token as is.
+     *
+     * @param token
+     * @return
+     */
+    public boolean isRevoked(String token) {
+        if (codec == null) {
+//            the session cache may still hold a session logged out on another instance
+            return !Boolean.TRUE.equals(stringRedisTemplate.hasKey(LOGIN_USER_KEY + token));
+        }
+        SignedTokenCodec.Claims claims = codec.verify(token, System.currentTimeMillis());
+        return claims == null
+                || stringRedisTemplate.opsForZSet().score(SESSION_REVOKED_KEY, claims.getTokenId()) != null;
+    }
+}
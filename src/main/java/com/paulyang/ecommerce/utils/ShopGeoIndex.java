@@ -0,0 +1,243 @@
+package com.paulyang.ecommerce.utils;
+
+import com.paulyang.ecommerce.entity.Shop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process spatial index for nearby-shop queries, one geohash-style grid per shop type.
+ * Shops are bucketed into square cells of {@code cellDegrees} on a side, so a radius query
+ * only has to inspect the cells overlapping the search circle's bounding box instead of
+ * every shop of the type.
+ *
+ * <p>Query Model:</p>
+ * <ul>
+ *   <li>Radius + k-nearest: returns at most {@code limit} hits within the radius, nearest first</li>
+ *   <li>Cursor Paging: the next page starts strictly after the last (distance, id) pair returned,
+ *       so deep pages never re-sort or discard earlier pages</li>
+ *   <li>Redis-Compatible Distances: uses the same earth radius as Redis GEO commands so the
+ *       two paths rank shops identically</li>
+ * </ul>
+ *
+ * <p>The index is safe for concurrent readers and writers; updates are expected to be rare
+ * compared with queries (shop create/update only).</p>
+ */
+public class ShopGeoIndex {
+
+    /**
+     * Earth radius used by Redis GEO commands, in meters
+     */
+    private static final double EARTH_RADIUS_IN_METERS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS_IN_METERS;
+    /**
+     * Above this many cells a query scans the whole type instead of walking the grid
+     */
+    private static final long MAX_CELLS_PER_QUERY = 4096;
+
+    private static final Comparator<Hit> NEAREST_FIRST =
+            Comparator.comparingDouble(Hit::getDistance).thenComparingLong(Hit::getId);
+
+    private final double cellDegrees;
+    private final Map<Long, TypeGrid> grids = new ConcurrentHashMap<>();
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    public ShopGeoIndex(double cellDegrees) {
+        if (cellDegrees <= 0) {
+            throw new IllegalArgumentException("cellDegrees must be positive");
+        }
+        this.cellDegrees = cellDegrees;
+    }
+
+    /**
+     * Insert or move a shop. Shops without coordinates or type are removed from the index.
+     *
+     * @param shop the shop row, as persisted in tb_shop
+     */
+    public void put(Shop shop) {
+        if (shop == null || shop.getId() == null) {
+            return;
+        }
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            remove(shop.getId());
+            return;
+        }
+        Entry entry = new Entry(shop.getId(), shop.getTypeId(), shop.getX(), shop.getY(), cellOf(shop.getX(), shop.getY()));
+        // the grids are updated inside the entry's compute so writes to one shop never interleave
+        entries.compute(entry.id, (id, old) -> {
+            if (old != null) {
+                grids.get(old.typeId).remove(old);
+            }
+            grids.computeIfAbsent(entry.typeId, k -> new TypeGrid()).add(entry);
+            return entry;
+        });
+    }
+
+    public void putAll(Collection<Shop> shops) {
+        for (Shop shop : shops) {
+            put(shop);
+        }
+    }
+
+    public void remove(Long shopId) {
+        entries.computeIfPresent(shopId, (id, old) -> {
+            grids.get(old.typeId).remove(old);
+            return null;
+        });
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Find the nearest shops of a type within a radius, after a cursor position.
+     *
+     * @param typeId        shop type
+     * @param x             longitude of the search center
+     * @param y             latitude of the search center
+     * @param radiusMeters  search radius in meters
+     * @param afterDistance distance of the last hit of the previous page, or null for the first page
+     * @param afterId       shop id of the last hit of the previous page, or null for the first page
+     * @param limit         maximum number of hits to return
+     * @return hits ordered by distance then id
+     */
+    public List<Hit> search(Long typeId, double x, double y, double radiusMeters,
+                            Double afterDistance, Long afterId, int limit) {
+        TypeGrid grid = grids.get(typeId);
+        if (grid == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        Hit after = afterDistance == null ? null : new Hit(afterId == null ? Long.MIN_VALUE : afterId, afterDistance);
+        // max-heap holding the current k nearest candidates
+        PriorityQueue<Hit> heap = new PriorityQueue<>(limit + 1, NEAREST_FIRST.reversed());
+
+        double dLat = radiusMeters / METERS_PER_DEGREE;
+        double cosLat = Math.max(Math.cos(Math.toRadians(y)), 1e-6);
+        double dLon = Math.min(radiusMeters / (METERS_PER_DEGREE * cosLat), 180);
+        long minCx = cellIndex(x - dLon), maxCx = cellIndex(x + dLon);
+        long minCy = cellIndex(y - dLat), maxCy = cellIndex(y + dLat);
+        if ((maxCx - minCx + 1) * (maxCy - minCy + 1) > MAX_CELLS_PER_QUERY) {
+            for (Set<Entry> cell : grid.cells.values()) {
+                collect(cell, x, y, radiusMeters, after, limit, heap);
+            }
+        } else {
+            for (long cx = minCx; cx <= maxCx; cx++) {
+                for (long cy = minCy; cy <= maxCy; cy++) {
+                    Set<Entry> cell = grid.cells.get(cellKey(cx, cy));
+                    if (cell != null) {
+                        collect(cell, x, y, radiusMeters, after, limit, heap);
+                    }
+                }
+            }
+        }
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort(NEAREST_FIRST);
+        return hits;
+    }
+
+    private void collect(Set<Entry> cell, double x, double y, double radiusMeters,
+                         Hit after, int limit, PriorityQueue<Hit> heap) {
+        for (Entry e : cell) {
+            double distance = distance(x, y, e.x, e.y);
+            if (distance > radiusMeters) {
+                continue;
+            }
+            Hit hit = new Hit(e.id, distance);
+            if (after != null && NEAREST_FIRST.compare(hit, after) <= 0) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.offer(hit);
+            } else if (NEAREST_FIRST.compare(hit, heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(hit);
+            }
+        }
+    }
+
+    /**
+     * Haversine distance in meters, matching Redis GEODIST
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1), lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        double a = u * u + Math.cos(lat1) * Math.cos(lat2) * v * v;
+        return 2.0 * EARTH_RADIUS_IN_METERS * Math.asin(Math.sqrt(a));
+    }
+
+    private long cellIndex(double degrees) {
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private long cellOf(double x, double y) {
+        return cellKey(cellIndex(x), cellIndex(y));
+    }
+
+    private static long cellKey(long cx, long cy) {
+        return (cx << 32) ^ (cy & 0xFFFFFFFFL);
+    }
+
+    private static final class TypeGrid {
+        private final Map<Long, Set<Entry>> cells = new ConcurrentHashMap<>();
+
+        void add(Entry e) {
+            cells.compute(e.cell, (k, set) -> {
+                set = set == null ? ConcurrentHashMap.newKeySet() : set;
+                set.add(e);
+                return set;
+            });
+        }
+
+        void remove(Entry e) {
+            cells.computeIfPresent(e.cell, (k, set) -> {
+                set.remove(e);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    private static final class Entry {
+        private final long id;
+        private final long typeId;
+        private final double x;
+        private final double y;
+        private final long cell;
+
+        Entry(long id, long typeId, double x, double y, long cell) {
+            this.id = id;
+            this.typeId = typeId;
+            this.x = x;
+            this.y = y;
+            this.cell = cell;
+        }
+    }
+
+    /**
+     * A shop found by {@link #search}: its id and distance from the search center in meters
+     */
+    public static final class Hit {
+        private final long id;
+        private final double distance;
+
+        public Hit(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+}
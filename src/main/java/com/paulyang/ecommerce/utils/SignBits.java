@@ -0,0 +1,91 @@
+package com.paulyang.ecommerce.utils;
+
+/**
+ * Bit arithmetic on monthly sign-in bitmaps, as read with BITFIELD GET u{days} #0 from a
+ * sign:{userId}{yyyyMM} key: day 1 is the most significant of the {@code days} low bits and
+ * the last day read is bit 0.
+ *
+ * <p>Runs are found with bit operations instead of a loop over the days: a trailing run is
+ * the number of trailing zeros of the complement, and {@code x & (x << 1)} shortens every
+ * run by one, so the longest run is the number of times it takes to clear the word.</p>
+ */
+public class SignBits {
+
+    private SignBits() {
+    }
+
+    /**
+     * @return number of days signed
+     */
+    public static int count(long bits) {
+        return Long.bitCount(bits);
+    }
+
+    /**
+     * @return consecutive days signed up to and including the last day
+     */
+    public static int trailingRun(long bits) {
+        return Long.numberOfTrailingZeros(~bits);
+    }
+
+    /**
+     * @return consecutive days signed from day 1
+     */
+    public static int leadingRun(long bits, int days) {
+        return Long.numberOfLeadingZeros(~(bits << (64 - days)));
+    }
+
+    /**
+     * @return longest run of consecutive days signed within the month
+     */
+    public static int longestRun(long bits) {
+        int run = 0;
+        while (bits != 0) {
+            bits &= bits << 1;
+            run++;
+        }
+        return run;
+    }
+
+    /**
+     * @return the days signed as a mask with day 1 in bit 0
+     */
+    public static int calendar(long bits, int days) {
+        return (int) (Long.reverse(bits) >>> (64 - days));
+    }
+
+    /**
+     * @param months consecutive months, oldest first
+     * @param days   number of days read of each month
+     * @return consecutive days signed up to and including the last day of the last month,
+     * carried back over month boundaries
+     */
+    public static int currentStreak(long[] months, int[] days) {
+        int streak = 0;
+        for (int i = months.length - 1; i >= 0; i--) {
+            int run = trailingRun(months[i]);
+            streak += run;
+            if (run < days[i]) {
+                break;
+            }
+        }
+        return streak;
+    }
+
+    /**
+     * @param months consecutive months, oldest first
+     * @param days   number of days read of each month
+     * @return longest run of consecutive days signed, including runs crossing month boundaries
+     */
+    public static int longestStreak(long[] months, int[] days) {
+        int longest = 0;
+//        run ending on the last day of the previous month
+        int carry = 0;
+        for (int i = 0; i < months.length; i++) {
+            longest = Math.max(longest, Math.max(longestRun(months[i]), carry + leadingRun(months[i], days[i])));
+            int run = trailingRun(months[i]);
+            carry = run == days[i] ? carry + run : run;
+        }
+        return longest;
+    }
+}
@@ -0,0 +1,89 @@
+package com.paulyang.ecommerce.utils;
+
+import cn.hutool.crypto.SecureUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.paulyang.ecommerce.dto.UserDTO;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * Session tokens carrying the logged in user themselves, for the signed session mode:
+ * {@code base64url(claims).base64url(HMAC-SHA256(claims))}. A token is verified without any
+ * network call; it stays valid until it expires unless its id is revoked.
+ */
+public class SignedTokenCodec {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final byte[] secret;
+
+    public SignedTokenCodec(String secret) {
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Data
+    public static class Claims {
+        private UserDTO user;
+        /**
+         * token id, the member revoked on logout
+         */
+        private String tokenId;
+        /**
+         * epoch milliseconds
+         */
+        private long expiresAt;
+    }
+
+    public String sign(Claims claims) {
+        JSONObject json = JSONUtil.createObj()
+                .set("id", claims.getUser().getId())
+                .set("nickName", claims.getUser().getNickName())
+                .set("icon", claims.getUser().getIcon())
+                .set("jti", claims.getTokenId())
+                .set("exp", claims.getExpiresAt());
+        String payload = ENCODER.encodeToString(json.toString().getBytes(StandardCharsets.UTF_8));
+        return payload + "." + ENCODER.encodeToString(mac(payload));
+    }
+
+    /**
+     * @param token
+     * @param now   epoch milliseconds
+     * @return the claims of the token, null if it is malformed, forged or expired
+     */
+    public Claims verify(String token, long now) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot != token.lastIndexOf('.')) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        try {
+            if (!MessageDigest.isEqual(mac(payload), DECODER.decode(token.substring(dot + 1)))) {
+                return null;
+            }
+            JSONObject json = JSONUtil.parseObj(new String(DECODER.decode(payload), StandardCharsets.UTF_8));
+            Claims claims = new Claims();
+            claims.setExpiresAt(json.getLong("exp"));
+            if (claims.getExpiresAt() <= now) {
+                return null;
+            }
+            UserDTO user = new UserDTO();
+            user.setId(json.getLong("id"));
+            user.setNickName(json.getStr("nickName"));
+            user.setIcon(json.getStr("icon"));
+            claims.setUser(user);
+            claims.setTokenId(json.getStr("jti"));
+            return claims;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private byte[] mac(String payload) {
+        return SecureUtil.hmacSha256(secret).digest(payload);
+    }
+}
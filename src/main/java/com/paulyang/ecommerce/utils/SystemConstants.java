@@ -5,4 +5,24 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 6;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final double SHOP_NEARBY_RADIUS = 5000;
+    public static final int FEED_FANOUT_BATCH_SIZE = 1000;
+    public static final int FEED_PAGE_SIZE = 2;
+    /**
+     * delay before retrying feed fan-out left pending while the author's followers were loaded elsewhere
+     */
+    public static final long FEED_FANOUT_RETRY_MILLIS = 5000;
+    /**
+     * likers shown on a blog, the first ones by time
+     */
+    public static final int BLOG_LIKERS_SIZE = 5;
+    /**
+     * nearby result sets are shared by coordinates rounded to 1/1000 degree (about 100 m)
+     */
+    public static final double SHOP_GEO_ROUNDING_SCALE = 1000;
+    /**
+     * months of sign-in history read for sign statistics
+     */
+    public static final int SIGN_STATS_MONTHS = 12;
+    public static final int SIGN_STATS_BATCH_SIZE = 100;
 }
@@ -1,20 +1,37 @@
 package com.paulyang.ecommerce.utils;
 
 import com.paulyang.ecommerce.dto.UserDTO;
-import com.paulyang.ecommerce.entity.User;
 
+import java.util.function.Supplier;
+
+/**
+ * The user of the current request, kept in its {@link RequestContext} so tasks submitted
+ * through a {@link ContextExecutorService} see it too.
+ */
 public class UserHolder {
-    private static final ThreadLocal<UserDTO> tl = new ThreadLocal<>();
 
     public static void saveUser(UserDTO user) {
-        tl.set(user);
+        RequestContext.set(RequestContext.of(currentTraceId(), () -> user));
+    }
+
+    /**
+     * defer resolving the user of the current request until it is asked for
+     */
+    public static void saveUserResolver(Supplier<UserDTO> userResolver) {
+        RequestContext.set(RequestContext.of(currentTraceId(), userResolver));
     }
 
     public static UserDTO getUser() {
-        return tl.get();
+        RequestContext context = RequestContext.current();
+        return context == null ? null : context.getUser();
     }
 
     public static void removeUser() {
-        tl.remove();
+        RequestContext.clear();
+    }
+
+    private static String currentTraceId() {
+        RequestContext context = RequestContext.current();
+        return context == null ? "" : context.getTraceId();
     }
 }
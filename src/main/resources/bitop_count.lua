@@ -0,0 +1,24 @@
+-- =============================================
+-- Bitmap Aggregate Count Lua Script
+-- =============================================
+-- Combines day bitmaps with BITOP and counts the users in the result, in
+-- one round trip. The result key is deleted before returning, so it never
+-- outlives the script.
+--
+-- Parameters:
+--   KEYS[1]: scratch key for the result
+--   KEYS[2..n]: bitmaps to combine
+--   ARGV[1]: BITOP operation, AND or OR
+--
+-- Return Values:
+--   number of bits set in the result
+-- =============================================
+
+local sources = {}
+for i = 2, #KEYS do
+    sources[#sources + 1] = KEYS[i]
+end
+redis.call('bitop', ARGV[1], KEYS[1], unpack(sources))
+local count = redis.call('bitcount', KEYS[1])
+redis.call('del', KEYS[1])
+return count
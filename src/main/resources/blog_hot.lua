@@ -0,0 +1,31 @@
+-- =============================================
+-- Blog Hot Ranking Rescore Lua Script
+-- =============================================
+-- Recomputes the hot score of a range of the blogs tracked by the hot
+-- ranking, in creation time order. Hot scores decay with age, so they are
+-- rescored periodically; like events update single blogs in between.
+--
+-- Hot score: likes / (age in hours + 2) ^ gravity
+--
+-- Parameters:
+--   KEYS[1]: hot ranking, blog id -> hot score
+--   KEYS[2]: like counts of the tracked blogs
+--   KEYS[3]: creation times of the tracked blogs, in milliseconds
+--   ARGV[1]: current time in milliseconds
+--   ARGV[2]: gravity of the hot score
+--   ARGV[3]: first rank of the range in KEYS[3]
+--   ARGV[4]: last rank of the range in KEYS[3]
+--
+-- Return Values:
+--   number of blogs rescored
+-- =============================================
+
+local blogs = redis.call('zrange', KEYS[3], ARGV[3], ARGV[4], 'WITHSCORES')
+local now = tonumber(ARGV[1])
+local gravity = tonumber(ARGV[2])
+for i = 1, #blogs, 2 do
+    local likes = math.max(tonumber(redis.call('zscore', KEYS[2], blogs[i]) or 0), 0)
+    local hours = math.max(now - tonumber(blogs[i + 1]), 0) / 3600000
+    redis.call('zadd', KEYS[1], likes / (hours + 2) ^ gravity, blogs[i])
+end
+return #blogs / 2
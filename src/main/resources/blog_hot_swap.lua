@@ -0,0 +1,47 @@
+-- =============================================
+-- Blog Hot Ranking Swap Lua Script
+-- =============================================
+-- Swaps a freshly built hot ranking in. The like counts were loaded from
+-- tb_blog while the like flush was held off, so the changes still waiting
+-- in the delta hashes are missing from them; they are added here, in the
+-- same call that makes the ranking visible. From then on like.lua keeps
+-- the ranking up to date itself, so no like is lost or counted twice.
+--
+-- Hot score: likes / (age in hours + 2) ^ gravity
+--
+-- Parameters:
+--   KEYS[1]: hot ranking being built
+--   KEYS[2]: like counts being built
+--   KEYS[3]: creation times being built, in milliseconds
+--   KEYS[4]: hot ranking, blog id -> hot score
+--   KEYS[5]: like counts of the blogs in the hot ranking
+--   KEYS[6]: creation times of the blogs in the hot ranking
+--   KEYS[7..n]: hashes of pending like count deltas, by blog id
+--   ARGV[1]: current time in milliseconds
+--   ARGV[2]: gravity of the hot score
+--
+-- Return Values:
+--   number of pending deltas added to the ranking
+-- =============================================
+
+local now = tonumber(ARGV[1])
+local gravity = tonumber(ARGV[2])
+local added = 0
+for i = 7, #KEYS do
+    local deltas = redis.call('hgetall', KEYS[i])
+    for j = 1, #deltas, 2 do
+        local created = redis.call('zscore', KEYS[3], deltas[j])
+        if(created) then
+            local likes = math.max(tonumber(redis.call('zincrby', KEYS[2], deltas[j + 1], deltas[j])), 0)
+            local hours = math.max(now - tonumber(created), 0) / 3600000
+            redis.call('zadd', KEYS[1], likes / (hours + 2) ^ gravity, deltas[j])
+            added = added + 1
+        end
+    end
+end
+
+redis.call('rename', KEYS[2], KEYS[5])
+redis.call('rename', KEYS[3], KEYS[6])
+-- the hot ranking last, its existence marks the ranking as built
+redis.call('rename', KEYS[1], KEYS[4])
+return added
@@ -0,0 +1,45 @@
+-- =============================================
+-- Blog Is-Liked Lua Script
+-- =============================================
+-- Tells whether a user likes each of a list of blogs. The user's recent
+-- likes (see like.lua) answer first; a blog missing from them, because
+-- the like is older than the recent likes or predates them, is looked up
+-- in the blog's exact likers, and a like found there is copied back into
+-- the recent likes so later checks and toggles see it. A blog in the
+-- filter tier has no exact likers, so an old like of it is not found.
+--
+-- Parameters:
+--   KEYS[1]: recent likes of the user
+--   KEYS[2..n]: sorted sets of the users who liked each blog (blog:liked:{id})
+--   ARGV[1]: user id
+--   ARGV[2]: most entries kept in the user's recent likes
+--   ARGV[3..n]: blog ids, in the order of KEYS[2..n]
+--
+-- Return Values:
+--   list of 1 (liked) or 0 (not liked), one per blog
+-- =============================================
+
+local liked = {}
+local backfilled = false
+for i = 2, #KEYS do
+    local blogId = ARGV[i + 1]
+    local seen = redis.call('zscore', KEYS[1], blogId)
+    if(seen) then
+        -- unlikes are kept with a negative score
+        liked[i - 1] = tonumber(seen) > 0 and 1 or 0
+    else
+        local likedAt = redis.call('zscore', KEYS[i], ARGV[1])
+        if(likedAt) then
+            redis.call('zadd', KEYS[1], likedAt, blogId)
+            backfilled = true
+            liked[i - 1] = 1
+        else
+            liked[i - 1] = 0
+        end
+    end
+end
+
+if(backfilled) then
+    redis.call('zremrangebyrank', KEYS[1], 0, -tonumber(ARGV[2]) - 1)
+end
+return liked
@@ -0,0 +1,45 @@
+-- =============================================
+-- Versioned Cache Write Lua Script
+-- =============================================
+-- Writes a record loaded from the database into its cache hash, unless a
+-- write to the record started or finished since the loader read the
+-- version, or one is still in progress. Writers bump the version once
+-- before and once after touching the database and are counted in the
+-- writers key meanwhile, so overlapping writers can never make the
+-- version look settled.
+--
+-- The counter field is kept outside the JSON body so it can be changed in
+-- place with HINCRBY. Counter changes not yet flushed to the database are
+-- read from the delta hashes and added to the loaded value.
+--
+-- Parameters:
+--   KEYS[1]: cache hash of the record (body, ver and the counter field)
+--   KEYS[2]: version of the record
+--   KEYS[3]: number of writes to the record in progress
+--   KEYS[4..n]: hashes of pending counter deltas, by record id
+--   ARGV[1]: version read before loading the record
+--   ARGV[2]: JSON body, empty for a record known to be absent
+--   ARGV[3]: name of the counter field
+--   ARGV[4]: counter value loaded from the database
+--   ARGV[5]: record id, the field in the delta hashes
+--   ARGV[6]: TTL in seconds
+--
+-- Return Values:
+--   1: cache written
+--   0: version moved or write in progress, nothing written
+-- =============================================
+
+local ver = tonumber(redis.call('get', KEYS[2]) or '0')
+if(ver ~= tonumber(ARGV[1]) or tonumber(redis.call('get', KEYS[3]) or '0') > 0) then
+    return 0
+end
+
+local counter = tonumber(ARGV[4])
+for i = 4, #KEYS do
+    counter = counter + tonumber(redis.call('hget', KEYS[i], ARGV[5]) or '0')
+end
+
+redis.call('del', KEYS[1])
+redis.call('hset', KEYS[1], 'body', ARGV[2], 'ver', ARGV[1], ARGV[3], counter)
+redis.call('expire', KEYS[1], ARGV[6])
+return 1
@@ -0,0 +1,33 @@
+-- =============================================
+-- Follow Cache Update Lua Script
+-- =============================================
+-- Applies a follow or unfollow, already written to tb_follow, to the
+-- follower's follow set, to the followed user's followers set and to the
+-- followed user's cached follower count. Both sets are updated even before
+-- they have been loaded from the database: they only count as loaded once
+-- they hold the loaded marker.
+-- The follower count is only updated if it is cached.
+--
+-- Parameters:
+--   KEYS[1]: users followed by the follower (follows:{userId})
+--   KEYS[2]: cached follower count of the followed user
+--   KEYS[3]: followers of the followed user (followers:{followUserId})
+--   ARGV[1]: followed user id
+--   ARGV[2]: 1 for a follow, -1 for an unfollow
+--   ARGV[3]: follower user id
+--
+-- Return Values:
+--   always 1
+-- =============================================
+
+if(ARGV[2] == '1') then
+    redis.call('sadd', KEYS[1], ARGV[1])
+    redis.call('sadd', KEYS[3], ARGV[3])
+else
+    redis.call('srem', KEYS[1], ARGV[1])
+    redis.call('srem', KEYS[3], ARGV[3])
+end
+if(redis.call('exists', KEYS[2]) == 1) then
+    redis.call('incrby', KEYS[2], ARGV[2])
+end
+return 1
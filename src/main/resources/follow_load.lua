@@ -0,0 +1,30 @@
+-- =============================================
+-- Follow Set Load Lua Script
+-- =============================================
+-- Writes the follows of a user loaded from tb_follow into the user's
+-- follow set, unless a follow or unfollow of the user started or finished
+-- since the loader read the version, or one is still in progress (see
+-- CacheClient.writeWithVersion).
+-- The members include the loaded marker, so the set counts as loaded even
+-- when the user follows nobody.
+--
+-- Parameters:
+--   KEYS[1]: users followed by the user (follows:{userId})
+--   KEYS[2]: version of the user's follows
+--   KEYS[3]: number of follows or unfollows of the user in progress
+--   ARGV[1]: version read before loading
+--   ARGV[2..n]: followed user ids and the loaded marker
+--
+-- Return Values:
+--   1: follow set loaded
+--   0: version moved or write in progress, nothing written
+-- =============================================
+
+local ver = tonumber(redis.call('get', KEYS[2]) or '0')
+if(ver ~= tonumber(ARGV[1]) or tonumber(redis.call('get', KEYS[3]) or '0') > 0) then
+    return 0
+end
+for i = 2, #ARGV do
+    redis.call('sadd', KEYS[1], ARGV[i])
+end
+return 1
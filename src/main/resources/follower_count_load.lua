@@ -0,0 +1,28 @@
+-- =============================================
+-- Follower Count Load Lua Script
+-- =============================================
+-- Caches the follower count of a user counted in tb_follow, unless a
+-- follow or unfollow of the user started or finished since the loader
+-- read the version, or one is still in progress (see
+-- CacheClient.writeWithVersion). Once cached, follow.lua keeps the count
+-- up to date with INCRBY.
+--
+-- Parameters:
+--   KEYS[1]: cached follower count of the user
+--   KEYS[2]: version of the user's followers
+--   KEYS[3]: number of follows or unfollows of the user in progress
+--   ARGV[1]: version read before counting
+--   ARGV[2]: follower count
+--   ARGV[3]: TTL in seconds
+--
+-- Return Values:
+--   1: count cached
+--   0: version moved or write in progress, nothing written
+-- =============================================
+
+local ver = tonumber(redis.call('get', KEYS[2]) or '0')
+if(ver ~= tonumber(ARGV[1]) or tonumber(redis.call('get', KEYS[3]) or '0') > 0) then
+    return 0
+end
+redis.call('set', KEYS[1], ARGV[2], 'EX', ARGV[3])
+return 1
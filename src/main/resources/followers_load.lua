@@ -0,0 +1,30 @@
+-- =============================================
+-- Followers Set Load Lua Script
+-- =============================================
+-- Replaces a user's followers set with the one built from tb_follow under a
+-- temporary key, unless a follow or unfollow of the user started or
+-- finished since the loader read the version, or one is still in progress
+-- (see CacheClient.writeWithVersion). The loaded marker is added, so the set
+-- counts as loaded even when nobody follows the user.
+--
+-- Parameters:
+--   KEYS[1]: followers of the user (followers:{userId})
+--   KEYS[2]: temporary key the followers were loaded into
+--   KEYS[3]: version of the user's followers
+--   KEYS[4]: number of follows or unfollows of the user in progress
+--   ARGV[1]: version read before loading
+--   ARGV[2]: loaded marker member
+--
+-- Return Values:
+--   1: followers set loaded
+--   0: version moved or write in progress, nothing written
+-- =============================================
+
+local ver = tonumber(redis.call('get', KEYS[3]) or '0')
+if(ver ~= tonumber(ARGV[1]) or tonumber(redis.call('get', KEYS[4]) or '0') > 0) then
+    redis.call('del', KEYS[2])
+    return 0
+end
+redis.call('sadd', KEYS[2], ARGV[2])
+redis.call('rename', KEYS[2], KEYS[1])
+return 1
@@ -0,0 +1,18 @@
+-- =============================================
+-- Followers Scan Lua Script
+-- =============================================
+-- One SSCAN step over a user's followers set, for feed fan-out. The
+-- returned cursor is saved as the fan-out progress, so a fan-out stopped by
+-- a crash resumes from the step it was at. Followers present for the whole
+-- scan are returned at least once.
+--
+-- Parameters:
+--   KEYS[1]: followers of the user (followers:{userId})
+--   ARGV[1]: cursor, 0 to start
+--   ARGV[2]: COUNT hint
+--
+-- Return Values:
+--   {next cursor, followers}; the next cursor is 0 when the scan is done
+-- =============================================
+
+return redis.call('sscan', KEYS[1], ARGV[1], 'COUNT', ARGV[2])
@@ -0,0 +1,148 @@
+-- =============================================
+-- Blog Like Toggle Lua Script
+-- =============================================
+-- Toggles a user's like on a blog and records the change of the like
+-- count in a delta hash. The deltas are flushed to tb_blog.liked by a
+-- periodic batch job, so a click never touches MySQL.
+--
+-- When the hot ranking has been built and tracks the blog, the blog's
+-- like count there is updated and its hot score recomputed in the same
+-- call: likes / (age in hours + 2) ^ gravity. A cached copy of the blog
+-- gets the change applied to its like count in place.
+--
+-- Likers are stored in two tiers:
+--   exact:  a sorted set of every liker, while the blog has at most
+--           ARGV[5] likes
+--   filter: past that the first ARGV[6] likers are kept for display, the
+--           sorted set is replaced by a bloom filter of ARGV[7] bits and
+--           the like count is kept by the delta hash alone
+-- Every like and unlike is also recorded in the user's recent likes
+-- (blog id -> time, negative for an unlike), capped at ARGV[8] entries,
+-- which is where is-liked checks and filter tier toggles look. Likes
+-- older than the recent likes are found by blog_liked.lua in the exact
+-- likers and copied back into the recent likes.
+--
+-- Parameters:
+--   KEYS[1]: sorted set of the users who liked the blog (blog:liked:{id})
+--   KEYS[2]: hash of pending like count deltas per blog
+--   KEYS[3]: hot ranking, blog id -> hot score
+--   KEYS[4]: like counts of the blogs in the hot ranking
+--   KEYS[5]: creation times of the blogs in the hot ranking, in milliseconds
+--   KEYS[6]: cache hash of the blog (cache:blog:{id})
+--   KEYS[7]: first likers of the blog, once in the filter tier
+--   KEYS[8]: bloom filter of the likers, once in the filter tier
+--   KEYS[9]: recent likes of the user
+--   ARGV[1]: user id
+--   ARGV[2]: blog id
+--   ARGV[3]: current time in milliseconds, the score of a new like
+--   ARGV[4]: gravity of the hot score
+--   ARGV[5]: most likers kept in the exact tier
+--   ARGV[6]: number of first likers kept in the filter tier
+--   ARGV[7]: size of the bloom filter in bits
+--   ARGV[8]: most entries kept in the user's recent likes
+--
+-- Return Values:
+--   1: the user now likes the blog
+--   0: the user's like was removed
+-- =============================================
+
+local now = tonumber(ARGV[3])
+
+local function rank(delta)
+    if(redis.call('exists', KEYS[3]) == 0) then
+        return
+    end
+    local created = redis.call('zscore', KEYS[5], ARGV[2])
+    if(created == false) then
+        return
+    end
+    local likes = math.max(tonumber(redis.call('zincrby', KEYS[4], delta, ARGV[2])), 0)
+    local hours = math.max(now - tonumber(created), 0) / 3600000
+    redis.call('zadd', KEYS[3], likes / (hours + 2) ^ tonumber(ARGV[4]), ARGV[2])
+end
+
+local function count(delta)
+    redis.call('hincrby', KEYS[2], ARGV[2], delta)
+    rank(delta)
+    if(redis.call('exists', KEYS[6]) == 1) then
+        redis.call('hincrby', KEYS[6], 'liked', delta)
+    end
+end
+
+local function recent(score)
+    redis.call('zadd', KEYS[9], score, ARGV[2])
+    -- unlikes have negative scores and are dropped before likes
+    redis.call('zremrangebyrank', KEYS[9], 0, -tonumber(ARGV[8]) - 1)
+end
+
+-- 4 bit offsets from the sha1 of the user id
+local function bloomOffsets(member)
+    local hash = redis.sha1hex(member)
+    local offsets = {}
+    for i = 0, 3 do
+        offsets[i + 1] = tonumber(string.sub(hash, i * 8 + 1, i * 8 + 8), 16) % tonumber(ARGV[7])
+    end
+    return offsets
+end
+
+local function bloomAdd(member)
+    for _, offset in ipairs(bloomOffsets(member)) do
+        redis.call('setbit', KEYS[8], offset, 1)
+    end
+end
+
+local function bloomHas(member)
+    for _, offset in ipairs(bloomOffsets(member)) do
+        if(redis.call('getbit', KEYS[8], offset) == 0) then
+            return false
+        end
+    end
+    return true
+end
+
+-- move a blog that outgrew the exact tier to the filter tier
+local function promote()
+    local first = redis.call('zrange', KEYS[1], 0, tonumber(ARGV[6]) - 1, 'WITHSCORES')
+    for i = 1, #first, 2 do
+        redis.call('zadd', KEYS[7], first[i + 1], first[i])
+    end
+    for _, member in ipairs(redis.call('zrange', KEYS[1], 0, -1)) do
+        bloomAdd(member)
+    end
+    redis.call('del', KEYS[1])
+end
+
+if(redis.call('exists', KEYS[8]) == 0) then
+    -- exact tier
+    if(redis.call('zscore', KEYS[1], ARGV[1]) == false) then
+        redis.call('zadd', KEYS[1], now, ARGV[1])
+        count(1)
+        recent(now)
+        if(redis.call('zcard', KEYS[1]) > tonumber(ARGV[5])) then
+            promote()
+        end
+        return 1
+    end
+    redis.call('zrem', KEYS[1], ARGV[1])
+    count(-1)
+    recent(-now)
+    return 0
+end
+
+-- filter tier
+local seen = redis.call('zscore', KEYS[9], ARGV[2])
+if(seen and tonumber(seen) > 0) then
+    redis.call('zrem', KEYS[7], ARGV[1])
+    count(-1)
+    recent(-now)
+    return 0
+end
+if(seen == false and bloomHas(ARGV[1])) then
+    -- liked before the user's recent likes, or a false positive: not counted again
+    recent(now)
+    return 1
+end
+bloomAdd(ARGV[1])
+count(1)
+recent(now)
+return 1
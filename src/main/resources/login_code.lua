@@ -0,0 +1,20 @@
+-- =============================================
+-- Login Code Verify Lua Script
+-- =============================================
+-- Checks a login verification code and consumes it when it matches, so a
+-- code logs in at most once even when the same form is submitted twice.
+--
+-- Parameters:
+--   KEYS[1]: verification code of the phone (login:code:{phone})
+--   ARGV[1]: code submitted
+--
+-- Return Values:
+--   1: code matched and consumed
+--   0: no code or a different one, nothing changed
+-- =============================================
+
+if(redis.call('get', KEYS[1]) ~= ARGV[1]) then
+    return 0
+end
+redis.call('del', KEYS[1])
+return 1
@@ -0,0 +1,48 @@
+-- =============================================
+-- Send Login Code Lua Script
+-- =============================================
+-- Stores a new login verification code unless one is still valid, or the
+-- phone or the client IP sent too many codes within the sliding window.
+-- Each sorted set holds one member per code sent, scored by send time.
+--
+-- Parameters:
+--   KEYS[1]: verification code of the phone (login:code:{phone})
+--   KEYS[2]: codes sent to the phone (limit:code:phone:{phone})
+--   KEYS[3]: codes requested from the IP (limit:code:ip:{ip})
+--   ARGV[1]: now, epoch milliseconds
+--   ARGV[2]: window, milliseconds
+--   ARGV[3]: codes allowed per phone within the window
+--   ARGV[4]: codes allowed per IP within the window
+--   ARGV[5]: new code
+--   ARGV[6]: code TTL, milliseconds
+--
+-- Return Values:
+--   {0, ttl}: new code stored, valid for ttl milliseconds
+--   {1, ttl}: a code was already valid, for ttl more milliseconds; nothing written
+--   {2, wait}: phone limit reached, the next code is allowed in wait milliseconds
+--   {3, wait}: IP limit reached, the next code is allowed in wait milliseconds
+-- =============================================
+
+local now = tonumber(ARGV[1])
+local window = tonumber(ARGV[2])
+
+local ttl = redis.call('pttl', KEYS[1])
+if(ttl > 0) then
+    return {1, ttl}
+end
+
+local limits = {{KEYS[2], tonumber(ARGV[3]), 2}, {KEYS[3], tonumber(ARGV[4]), 3}}
+for _, limit in ipairs(limits) do
+    redis.call('zremrangebyscore', limit[1], '-inf', now - window)
+    if(redis.call('zcard', limit[1]) >= limit[2]) then
+        local oldest = redis.call('zrange', limit[1], 0, 0, 'WITHSCORES')
+        return {limit[3], tonumber(oldest[2]) + window - now}
+    end
+end
+
+redis.call('set', KEYS[1], ARGV[5], 'PX', ARGV[6])
+for _, limit in ipairs(limits) do
+    redis.call('zadd', limit[1], now, now .. ':' .. ARGV[5])
+    redis.call('pexpire', limit[1], window)
+end
+return {0, tonumber(ARGV[6])}
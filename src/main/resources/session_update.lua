@@ -0,0 +1,22 @@
+-- =============================================
+-- Session Update Lua Script
+-- =============================================
+-- Overwrites fields of a logged in user's session hash, e.g. after the
+-- user edited their profile. Only a session that still exists is
+-- written, so a session logged out or expired meanwhile is not
+-- recreated without a TTL.
+--
+-- Parameters:
+--   KEYS[1]: session hash (login:token:{token})
+--   ARGV: field, value, field, value, ...
+--
+-- Return Values:
+--   1: session updated
+--   0: no such session, nothing written
+-- =============================================
+
+if(redis.call('exists', KEYS[1]) == 0) then
+    return 0
+end
+redis.call('hset', KEYS[1], unpack(ARGV))
+return 1
@@ -0,0 +1,30 @@
+-- =============================================
+-- Shop Geo Load Lua Script
+-- =============================================
+-- Replaces the shop:geo key of a type with the one built from tb_shop under
+-- a temporary key, unless a shop of the type was added, moved or removed
+-- since the loader read the version. Writers bump the version before they
+-- touch the live key, so a write the loader may have missed always moves it.
+-- A type without shops is published by deleting the live key.
+--
+-- Parameters:
+--   KEYS[1]: shop geo set of the type (shop:geo:{typeId})
+--   KEYS[2]: temporary key the shops were loaded into
+--   KEYS[3]: version of the type's geo set
+--   ARGV[1]: version read before loading
+--
+-- Return Values:
+--   1: geo set loaded
+--   0: version moved, nothing written
+-- =============================================
+
+if(tonumber(redis.call('get', KEYS[3]) or '0') ~= tonumber(ARGV[1])) then
+    redis.call('del', KEYS[2])
+    return 0
+end
+if(redis.call('exists', KEYS[2]) == 1) then
+    redis.call('rename', KEYS[2], KEYS[1])
+else
+    redis.call('del', KEYS[1])
+end
+return 1
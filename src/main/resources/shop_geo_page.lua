@@ -0,0 +1,31 @@
+-- =============================================
+-- Nearby Shops Page Lua Script
+-- =============================================
+-- Reads one page of the distance-sorted nearby result set of a rounded
+-- coordinate, computing the result set with GEOSEARCHSTORE first if it is
+-- missing. The result set and its TTL are written in the same call, so it
+-- can never be left behind without an expiry.
+--
+-- Parameters:
+--   KEYS[1]: shop geo set of the type (shop:geo:{typeId})
+--   KEYS[2]: result set of the query (cache:shop:geo:{typeId}:{x}:{y}:{radius})
+--   ARGV[1]: longitude, rounded
+--   ARGV[2]: latitude, rounded
+--   ARGV[3]: radius, meters
+--   ARGV[4]: result set TTL, seconds
+--   ARGV[5]: rank of the first shop of the page, inclusive
+--   ARGV[6]: rank of the last shop of the page, inclusive
+--
+-- Return Values:
+--   {shopId1, distance1, shopId2, distance2, ...}, empty if no shop is in range
+-- =============================================
+
+if(redis.call('exists', KEYS[2]) == 0) then
+    local stored = redis.call('geosearchstore', KEYS[2], KEYS[1], 'FROMLONLAT', ARGV[1], ARGV[2],
+            'BYRADIUS', ARGV[3], 'm', 'ASC', 'STOREDIST')
+    if(stored == 0) then
+        return {}
+    end
+    redis.call('expire', KEYS[2], ARGV[4])
+end
+return redis.call('zrange', KEYS[2], ARGV[5], ARGV[6], 'WITHSCORES')
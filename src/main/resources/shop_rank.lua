@@ -0,0 +1,29 @@
+-- =============================================
+-- Shop Ranking Update Lua Script
+-- =============================================
+-- Writes a shop's comments and score into the ranking sorted sets of its
+-- type, but only into rankings that have already been built. A missing
+-- ranking is built lazily from tb_shop on first read, so creating it here
+-- with a single member would hide every other shop of the type.
+--
+-- Parameters:
+--   KEYS[1]: comments ranking of the shop's type
+--   KEYS[2]: score ranking of the shop's type
+--   ARGV[1]: shop id
+--   ARGV[2]: number of comments
+--   ARGV[3]: score
+--
+-- Return Values:
+--   number of rankings updated
+-- =============================================
+
+local updated = 0
+if(redis.call('exists', KEYS[1]) == 1) then
+    redis.call('zadd', KEYS[1], ARGV[2], ARGV[1])
+    updated = updated + 1
+end
+if(redis.call('exists', KEYS[2]) == 1) then
+    redis.call('zadd', KEYS[2], ARGV[3], ARGV[1])
+    updated = updated + 1
+end
+return updated
@@ -0,0 +1,33 @@
+-- =============================================
+-- Shop Ranking Load Lua Script
+-- =============================================
+-- Replaces the comments and score rankings of a type with the ones built
+-- from tb_shop under temporary keys, unless a shop of the type was written
+-- since the loader read the version. Writers bump the version before they
+-- touch the live rankings, so a write the loader may have missed always
+-- moves it. The loaded marker is added with the lowest possible score, so
+-- a ranking counts as built even when the type has no shops.
+--
+-- Parameters:
+--   KEYS[1]: comments ranking of the type
+--   KEYS[2]: score ranking of the type
+--   KEYS[3]: temporary key the comments ranking was loaded into
+--   KEYS[4]: temporary key the score ranking was loaded into
+--   KEYS[5]: version of the type's rankings
+--   ARGV[1]: version read before loading
+--   ARGV[2]: loaded marker member
+--
+-- Return Values:
+--   1: rankings loaded
+--   0: version moved, nothing written
+-- =============================================
+
+if(tonumber(redis.call('get', KEYS[5]) or '0') ~= tonumber(ARGV[1])) then
+    redis.call('del', KEYS[3], KEYS[4])
+    return 0
+end
+redis.call('zadd', KEYS[3], '-inf', ARGV[2])
+redis.call('zadd', KEYS[4], '-inf', ARGV[2])
+redis.call('rename', KEYS[3], KEYS[1])
+redis.call('rename', KEYS[4], KEYS[2])
+return 1
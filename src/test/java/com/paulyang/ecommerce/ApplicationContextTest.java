@@ -0,0 +1,61 @@
+package com.paulyang.ecommerce;
+
+import com.paulyang.ecommerce.utils.SessionCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.paulyang.ecommerce.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Loads the real application context, so beans that use the Redis keys while starting up
+ * fail here if they are created before RedisConstants has set them.
+ */
+@SpringBootTest(classes = ECommerceApplication.class)
+@TestPropertySource(properties = "spring.profiles.active=local")
+public class ApplicationContextTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SessionCache sessionCache;
+
+    private static final String TOKEN = "test-context-token";
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + TOKEN);
+    }
+
+    @Test
+    void redisKeysAreSetWhenTheContextIsUp() {
+        assertNotNull(SESSION_INVALIDATE_CHANNEL);
+        assertNotNull(FEED_STREAM_KEY);
+        assertNotNull(LOGIN_USER_KEY);
+    }
+
+    @Test
+    void sessionCacheListensOnTheInvalidationChannel() throws InterruptedException {
+        Map<String, String> userMap = new HashMap<>();
+        userMap.put("id", "7");
+        userMap.put("nickName", "user_7");
+        stringRedisTemplate.opsForHash().putAll(LOGIN_USER_KEY + TOKEN, userMap);
+        assertEquals(7L, sessionCache.get(TOKEN).getId());
+
+        // a logout on another instance: the hash is gone and the token is published
+        stringRedisTemplate.delete(LOGIN_USER_KEY + TOKEN);
+        stringRedisTemplate.convertAndSend(SESSION_INVALIDATE_CHANNEL, TOKEN);
+
+        for (int i = 0; i < 100 && sessionCache.get(TOKEN) != null; i++) {
+            Thread.sleep(20);
+        }
+        assertNull(sessionCache.get(TOKEN));
+    }
+}
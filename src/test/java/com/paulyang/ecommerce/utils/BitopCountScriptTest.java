@@ -0,0 +1,73 @@
+package com.paulyang.ecommerce.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for bitop_count.lua: multi-day actives and retention counts over day bitmaps indexed
+ * by user id.
+ */
+@SpringBootTest(classes = CacheClientTest.TestApplication.class, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+public class BitopCountScriptTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final String DAY1 = "test:active:day:1";
+    private static final String DAY2 = "test:active:day:2";
+    private static final String SCRATCH = "test:active:day:scratch";
+
+    private final DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+
+    {
+        script.setLocation(new ClassPathResource("bitop_count.lua"));
+        script.setResultType(Long.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(DAY1, DAY2, SCRATCH));
+    }
+
+    private void active(String day, long... userIds) {
+        for (long userId : userIds) {
+            stringRedisTemplate.opsForValue().setBit(day, userId, true);
+        }
+    }
+
+    @Test
+    void orCountsDistinctUsersOverDays() {
+        active(DAY1, 1, 5, 10_000_000);
+        active(DAY2, 5, 7);
+
+        assertEquals(4L, stringRedisTemplate.execute(script, Arrays.asList(SCRATCH, DAY1, DAY2), "OR"));
+        assertFalse(stringRedisTemplate.hasKey(SCRATCH));
+    }
+
+    @Test
+    void andCountsUsersActiveOnBothDays() {
+        active(DAY1, 1, 5, 10_000_000);
+        active(DAY2, 5, 7, 10_000_000);
+
+        assertEquals(2L, stringRedisTemplate.execute(script, Arrays.asList(SCRATCH, DAY1, DAY2), "AND"));
+    }
+
+    @Test
+    void missingDaysCountAsEmpty() {
+        active(DAY1, 3);
+
+        assertEquals(1L, stringRedisTemplate.execute(script, Arrays.asList(SCRATCH, DAY1, DAY2), "OR"));
+        assertEquals(0L, stringRedisTemplate.execute(script, Arrays.asList(SCRATCH, DAY1, DAY2), "AND"));
+    }
+}
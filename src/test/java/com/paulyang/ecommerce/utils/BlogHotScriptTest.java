@@ -0,0 +1,120 @@
+package com.paulyang.ecommerce.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for blog_hot.lua: rescoring ranks blogs by likes decayed with age, and for
+ * blog_hot_swap.lua: a built ranking is swapped in with the pending like deltas added.
+ */
+@SpringBootTest(classes = CacheClientTest.TestApplication.class, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+public class BlogHotScriptTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final String HOT_KEY = "test:blog:hot";
+    private static final String HOT_LIKES_KEY = "test:blog:hot:likes";
+    private static final String HOT_TIME_KEY = "test:blog:hot:time";
+    private static final String DELTA_KEY = "test:blog:like:delta";
+    private static final String FLUSHING_KEY = "test:blog:like:delta:flushing";
+
+    private final DefaultRedisScript<Long> hotScript = new DefaultRedisScript<>();
+    private final DefaultRedisScript<Long> swapScript = new DefaultRedisScript<>();
+
+    {
+        hotScript.setLocation(new ClassPathResource("blog_hot.lua"));
+        hotScript.setResultType(Long.class);
+        swapScript.setLocation(new ClassPathResource("blog_hot_swap.lua"));
+        swapScript.setResultType(Long.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(HOT_KEY, HOT_LIKES_KEY, HOT_TIME_KEY, DELTA_KEY, FLUSHING_KEY,
+            HOT_KEY + ":loading", HOT_LIKES_KEY + ":loading", HOT_TIME_KEY + ":loading"));
+    }
+
+    private void track(String blogId, long likes, long ageHours, long now) {
+        stringRedisTemplate.opsForZSet().add(HOT_LIKES_KEY, blogId, likes);
+        stringRedisTemplate.opsForZSet().add(HOT_TIME_KEY, blogId, now - ageHours * 3600_000L);
+    }
+
+    private Long rescore(long now, long start, long stop) {
+        List<String> keys = Arrays.asList(HOT_KEY, HOT_LIKES_KEY, HOT_TIME_KEY);
+        return stringRedisTemplate.execute(hotScript, keys,
+            String.valueOf(now), "1.8", String.valueOf(start), String.valueOf(stop));
+    }
+
+    @Test
+    void fresherBlogOutranksOlderBlogWithMoreLikes() {
+        long now = System.currentTimeMillis();
+        track("1", 100, 72, now);
+        track("2", 20, 1, now);
+        track("3", 0, 0, now);
+
+        assertEquals(3L, rescore(now, 0, -1));
+
+        Set<String> ranking = stringRedisTemplate.opsForZSet().reverseRange(HOT_KEY, 0, -1);
+        assertEquals(Arrays.asList("2", "1", "3"), new ArrayList<>(ranking));
+        assertEquals(20 / Math.pow(3, 1.8), stringRedisTemplate.opsForZSet().score(HOT_KEY, "2"), 1e-3);
+    }
+
+    @Test
+    void rescoresOnlyTheRequestedBatch() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            track(String.valueOf(i), 10, i, now);
+        }
+
+        assertEquals(2L, rescore(now, 0, 1));
+        assertEquals(2L, stringRedisTemplate.opsForZSet().zCard(HOT_KEY));
+        assertEquals(3L, rescore(now, 2, 3 + 1000));
+        assertEquals(5L, stringRedisTemplate.opsForZSet().zCard(HOT_KEY));
+    }
+
+    @Test
+    void swapAddsPendingDeltasOfLoadedBlogs() {
+        long now = System.currentTimeMillis();
+        String hotLoading = HOT_KEY + ":loading";
+        String likesLoading = HOT_LIKES_KEY + ":loading";
+        String timeLoading = HOT_TIME_KEY + ":loading";
+        stringRedisTemplate.opsForZSet().add(likesLoading, "1", 10);
+        stringRedisTemplate.opsForZSet().add(timeLoading, "1", now);
+        stringRedisTemplate.opsForZSet().add(likesLoading, "2", 5);
+        stringRedisTemplate.opsForZSet().add(timeLoading, "2", now);
+        stringRedisTemplate.opsForZSet().add(hotLoading, "1", 0);
+        stringRedisTemplate.opsForZSet().add(hotLoading, "2", 0);
+//        pending in both hashes, and a delta of a blog outside the ranking
+        stringRedisTemplate.opsForHash().put(DELTA_KEY, "1", "3");
+        stringRedisTemplate.opsForHash().put(FLUSHING_KEY, "1", "2");
+        stringRedisTemplate.opsForHash().put(DELTA_KEY, "9", "1");
+
+        Long added = stringRedisTemplate.execute(swapScript,
+            Arrays.asList(hotLoading, likesLoading, timeLoading, HOT_KEY, HOT_LIKES_KEY, HOT_TIME_KEY,
+                DELTA_KEY, FLUSHING_KEY),
+            String.valueOf(now), "1.8");
+
+        assertEquals(2L, added);
+        assertEquals(15.0, stringRedisTemplate.opsForZSet().score(HOT_LIKES_KEY, "1"));
+        assertEquals(5.0, stringRedisTemplate.opsForZSet().score(HOT_LIKES_KEY, "2"));
+        assertNull(stringRedisTemplate.opsForZSet().score(HOT_LIKES_KEY, "9"));
+        assertEquals(15 / Math.pow(2, 1.8), stringRedisTemplate.opsForZSet().score(HOT_KEY, "1"), 1e-3);
+        assertFalse(stringRedisTemplate.hasKey(hotLoading));
+        assertEquals(2L, stringRedisTemplate.opsForZSet().zCard(HOT_TIME_KEY));
+    }
+}
@@ -1,6 +1,7 @@
 package com.paulyang.ecommerce.utils;
 
 import com.paulyang.ecommerce.entity.Shop;
+import com.paulyang.ecommerce.entity.UserInfo;
 import com.paulyang.ecommerce.config.RedisProperties;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
@@ -10,15 +11,25 @@ import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -248,6 +259,243 @@ public class CacheClientTest {
         System.out.println("Basic cache operations test: PASSED");
     }
     
+    @Test
+    void testBatchPassThroughKeepsOrderAndCachesMisses() {
+        // Test batch hydration: one DB call for all misses, results in id order
+        String testKey = TEST_KEY_PREFIX + "batch_test:";
+        cacheClient.set(testKey + "2", createTestShop(2L), 30L, TimeUnit.SECONDS);
+
+        AtomicInteger dbCallCount = new AtomicInteger(0);
+        Function<Collection<Long>, List<Shop>> dbFallback = ids -> {
+            dbCallCount.incrementAndGet();
+            assertFalse(ids.contains(2L), "Cached ids should not be loaded");
+            // id 4 does not exist, return the rest in reverse order
+            return ids.stream().filter(id -> id != 4L).sorted((a, b) -> Long.compare(b, a))
+                .map(this::createTestShop).collect(Collectors.toList());
+        };
+
+        List<Long> ids = Arrays.asList(3L, 2L, 4L, 1L);
+        List<Shop> result1 = cacheClient.queryBatchWithPassThrough(
+            testKey, ids, Shop.class, dbFallback, Shop::getId, 30L, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(3L, 2L, 1L), result1.stream().map(Shop::getId).collect(Collectors.toList()),
+            "Results should follow the requested order and skip absent ids");
+        assertEquals(1, dbCallCount.get(), "Misses should be loaded with one DB call");
+        assertEquals("", stringRedisTemplate.opsForValue().get(testKey + "4"),
+            "Absent id should get a Negative Cache Entry");
+
+        List<Shop> result2 = cacheClient.queryBatchWithPassThrough(
+            testKey, ids, Shop.class, dbFallback, Shop::getId, 30L, TimeUnit.SECONDS);
+        assertEquals(3, result2.size(), "Second call should be served from cache");
+        assertEquals(1, dbCallCount.get(), "DB should not be called again");
+
+        System.out.println("Batch pass through test: PASSED");
+    }
+
+    @Test
+    void testBatchWriteBackKeepsValueWrittenThroughDuringLoad() {
+        // Test that a miss loaded before an update does not replace the value the update wrote through
+        String testKey = TEST_KEY_PREFIX + "batch_write_through_test:";
+        Function<Collection<Long>, List<UserInfo>> dbFallback = ids -> {
+            // the update commits and writes through while this reader still holds the old row
+            cacheClient.set(testKey + "1", createTestUserInfo(1L, "Hangzhou"), 30L, TimeUnit.SECONDS);
+            return ids.stream().map(id -> createTestUserInfo(id, "Shanghai")).collect(Collectors.toList());
+        };
+
+        List<UserInfo> loaded = cacheClient.queryBatchWithPassThrough(
+            testKey, Arrays.asList(1L), UserInfo.class, dbFallback, UserInfo::getUserId, 30L, TimeUnit.SECONDS);
+        assertEquals("Shanghai", loaded.get(0).getCity(), "Reader should still get the row it loaded");
+
+        List<UserInfo> cached = cacheClient.queryBatchWithPassThrough(testKey, Arrays.asList(1L), UserInfo.class,
+            ids -> fail("Written through value should be served from cache"), UserInfo::getUserId, 30L, TimeUnit.SECONDS);
+        assertEquals(createTestUserInfo(1L, "Hangzhou"), cached.get(0), "Written through value should be kept");
+
+        System.out.println("Batch write through test: PASSED");
+    }
+
+    @Test
+    void testBatchLogicalExpireServesStaleAndLoadsMisses() throws InterruptedException {
+        // Test batch logical expiration: expired entries served while rebuilt, misses loaded once
+        String testKey = TEST_KEY_PREFIX + "batch_logical_test:";
+        cacheClient.setWithLogicalExpire(testKey + "1", createTestShop(1L), 0L, TimeUnit.SECONDS);
+
+        AtomicInteger dbCallCount = new AtomicInteger(0);
+        Function<Collection<Long>, List<Shop>> dbFallback = ids -> {
+            dbCallCount.incrementAndGet();
+            return ids.stream().map(this::createTestShop).collect(Collectors.toList());
+        };
+
+        List<Shop> result = cacheClient.queryBatchWithLogicalExpire(
+            testKey, Arrays.asList(2L, 1L), Shop.class, dbFallback, Shop::getId, 30L, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(2L, 1L), result.stream().map(Shop::getId).collect(Collectors.toList()),
+            "Should return the stale entry and the loaded miss in order");
+        assertNotNull(stringRedisTemplate.opsForValue().get(testKey + "2"), "Miss should be written back");
+
+        // background rebuild of the expired entry
+        Thread.sleep(500);
+        assertEquals(2, dbCallCount.get(), "One load for the miss, one rebuild for the expired entry");
+
+        System.out.println("Batch logical expiration test: PASSED");
+    }
+
+    @Test
+    void testBatchLogicalExpireRebuildLockIsPerKeyPrefix() throws InterruptedException {
+        // Test that a rebuild held for another entity type with the same id does not block this one
+        String testKey = TEST_KEY_PREFIX + "batch_lock_test:";
+        // a shop rebuild of the same id is in progress
+        String otherLockKey = RedisConstants.LOCK_SHOP_KEY + 1;
+        cacheClient.setWithLogicalExpire(testKey + "1", createTestShop(1L), 0L, TimeUnit.SECONDS);
+        stringRedisTemplate.opsForValue().set(otherLockKey, "1", 10, TimeUnit.SECONDS);
+
+        AtomicInteger dbCallCount = new AtomicInteger(0);
+        Function<Collection<Long>, List<Shop>> dbFallback = ids -> {
+            dbCallCount.incrementAndGet();
+            return ids.stream().map(this::createTestShop).collect(Collectors.toList());
+        };
+
+        try {
+            cacheClient.queryBatchWithLogicalExpire(
+                testKey, Arrays.asList(1L), Shop.class, dbFallback, Shop::getId, 30L, TimeUnit.SECONDS);
+            Thread.sleep(500);
+            assertEquals(1, dbCallCount.get(), "Expired entry should be rebuilt despite the other type's lock");
+        } finally {
+            stringRedisTemplate.delete(otherLockKey);
+        }
+
+        System.out.println("Batch rebuild lock test: PASSED");
+    }
+
+    @Test
+    void testVersionedBatchAddsPendingDeltasAndKeepsCounterInPlace() {
+        // Test versioned entries: counter kept beside the body, pending deltas added on load
+        String testKey = TEST_KEY_PREFIX + "version_test:";
+        String versionKey = TEST_KEY_PREFIX + "version_test:ver:";
+        String deltaKey = TEST_KEY_PREFIX + "version_test:delta";
+        stringRedisTemplate.opsForHash().put(deltaKey, "1", "3");
+
+        AtomicInteger dbCallCount = new AtomicInteger(0);
+        Function<Collection<Long>, List<Shop>> dbFallback = ids -> {
+            dbCallCount.incrementAndGet();
+            return ids.stream().filter(id -> id != 2L).map(this::createTestShop).collect(Collectors.toList());
+        };
+
+        List<Shop> result1 = cacheClient.queryBatchWithVersion(testKey, versionKey, Arrays.asList(1L, 2L), Shop.class,
+            dbFallback, Shop::getId, "comments", Arrays.asList(deltaKey), 30L, TimeUnit.SECONDS);
+        assertEquals(1, result1.size(), "Absent id should be skipped");
+        assertEquals("13", stringRedisTemplate.opsForHash().get(testKey + "1", "comments"),
+            "Cached counter should include the pending delta");
+        assertEquals("", stringRedisTemplate.opsForHash().get(testKey + "2", "body"),
+            "Absent id should get a Negative Cache Entry");
+
+        // counter changed in place, body untouched
+        stringRedisTemplate.opsForHash().increment(testKey + "1", "comments", 1);
+        List<Shop> result2 = cacheClient.queryBatchWithVersion(testKey, versionKey, Arrays.asList(1L, 2L), Shop.class,
+            dbFallback, Shop::getId, "comments", Arrays.asList(deltaKey), 30L, TimeUnit.SECONDS);
+        assertEquals(14, result2.get(0).getComments(), "Counter should be read from the cache hash");
+        assertEquals("Test Shop 1", result2.get(0).getName());
+        assertEquals(1, dbCallCount.get(), "Second call should be served from cache");
+
+        System.out.println("Versioned batch test: PASSED");
+    }
+
+    @Test
+    void testVersionedBatchSkipsWriteBackDuringWrite() {
+        // Test versioned entries: a record loaded while a write is in progress is not cached
+        String testKey = TEST_KEY_PREFIX + "version_write_test:";
+        String versionKey = TEST_KEY_PREFIX + "version_write_test:ver:";
+        Function<Collection<Long>, List<Shop>> dbFallback =
+            ids -> ids.stream().map(this::createTestShop).collect(Collectors.toList());
+
+        cacheClient.writeWithVersion(versionKey + "1", () -> {
+            List<Shop> loaded = cacheClient.queryBatchWithVersion(testKey, versionKey, Arrays.asList(1L), Shop.class,
+                dbFallback, Shop::getId, "comments", Arrays.asList(), 30L, TimeUnit.SECONDS);
+            assertEquals(1, loaded.size(), "Reader should still get the loaded record");
+        });
+        assertFalse(stringRedisTemplate.hasKey(testKey + "1"), "Record loaded during a write should not be cached");
+        assertEquals("2", stringRedisTemplate.opsForValue().get(versionKey + "1"), "Version should move at the start and the end of the write");
+        assertEquals("0", stringRedisTemplate.opsForValue().get(CacheClient.writersKey(versionKey + "1")), "No write should be left in progress");
+
+        cacheClient.queryBatchWithVersion(testKey, versionKey, Arrays.asList(1L), Shop.class,
+            dbFallback, Shop::getId, "comments", Arrays.asList(), 30L, TimeUnit.SECONDS);
+        assertEquals("2", stringRedisTemplate.opsForHash().get(testKey + "1", "ver"), "Record should be cached once the write is done");
+
+        System.out.println("Versioned write test: PASSED");
+    }
+
+    @Test
+    void testVersionedBatchSkipsWriteBackWhileOverlappingWritersRun() {
+        // Test versioned entries: two writers started leave the version even while both are still writing
+        String testKey = TEST_KEY_PREFIX + "version_overlap_test:";
+        String versionKey = TEST_KEY_PREFIX + "version_overlap_test:ver:";
+        Function<Collection<Long>, List<Shop>> dbFallback =
+            ids -> ids.stream().map(this::createTestShop).collect(Collectors.toList());
+
+        cacheClient.writeWithVersion(versionKey + "1", () ->
+            cacheClient.writeWithVersion(versionKey + "1", () -> {
+                assertEquals("2", stringRedisTemplate.opsForValue().get(versionKey + "1"));
+                cacheClient.queryBatchWithVersion(testKey, versionKey, Arrays.asList(1L), Shop.class,
+                    dbFallback, Shop::getId, "comments", Arrays.asList(), 30L, TimeUnit.SECONDS);
+                assertFalse(stringRedisTemplate.hasKey(testKey + "1"), "Record loaded while writers run should not be cached");
+            }));
+
+        cacheClient.queryBatchWithVersion(testKey, versionKey, Arrays.asList(1L), Shop.class,
+            dbFallback, Shop::getId, "comments", Arrays.asList(), 30L, TimeUnit.SECONDS);
+        assertTrue(stringRedisTemplate.hasKey(testKey + "1"), "Record should be cached once every writer is done");
+
+        System.out.println("Versioned overlapping writers test: PASSED");
+    }
+
+    @Test
+    void testVersionedBatchLoadsTheScriptWhenRedisLostIt() {
+        // Test versioned entries: the write-back runs by SHA1 and loads the script on NOSCRIPT
+        String testKey = TEST_KEY_PREFIX + "version_noscript_test:";
+        String versionKey = TEST_KEY_PREFIX + "version_noscript_test:ver:";
+        Function<Collection<Long>, List<Shop>> dbFallback =
+            ids -> ids.stream().map(this::createTestShop).collect(Collectors.toList());
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.scriptFlush();
+            return null;
+        });
+
+        List<Shop> loaded = cacheClient.queryBatchWithVersion(testKey, versionKey, Arrays.asList(1L, 2L), Shop.class,
+            dbFallback, Shop::getId, "comments", Arrays.asList(), 30L, TimeUnit.SECONDS);
+        assertEquals(2, loaded.size());
+        assertTrue(stringRedisTemplate.hasKey(testKey + "1"), "Record should be cached after the script was loaded");
+        assertTrue(stringRedisTemplate.hasKey(testKey + "2"), "Record should be cached after the script was loaded");
+
+        System.out.println("Versioned batch NOSCRIPT test: PASSED");
+    }
+
+    @Test
+    void testFlushCounterDeltasResumesAnInterruptedBatchFirst() {
+        // Test write-behind counters: a batch left by a crashed flush is written before new deltas are taken
+        String deltaKey = TEST_KEY_PREFIX + "delta_test";
+        String versionKey = TEST_KEY_PREFIX + "delta_test:ver:";
+        stringRedisTemplate.opsForHash().put(CacheClient.flushingKey(deltaKey), "1", "2");
+        stringRedisTemplate.opsForHash().put(deltaKey, "1", "5");
+        stringRedisTemplate.opsForHash().put(deltaKey, "2", "0");
+
+        Map<String, Long> written = new HashMap<>();
+        cacheClient.flushCounterDeltas(deltaKey, versionKey, new ReentrantLock(), (id, delta) -> written.merge(id, delta, Long::sum));
+        assertEquals(Collections.singletonMap("1", 2L), written, "Only the interrupted batch should be written first");
+        assertFalse(stringRedisTemplate.hasKey(CacheClient.flushingKey(deltaKey)), "Written records should be removed from the batch");
+
+        cacheClient.flushCounterDeltas(deltaKey, versionKey, new ReentrantLock(), (id, delta) -> written.merge(id, delta, Long::sum));
+        assertEquals(Collections.singletonMap("1", 7L), written, "New deltas should be written next, zero deltas skipped");
+        assertFalse(stringRedisTemplate.hasKey(deltaKey));
+        assertFalse(stringRedisTemplate.hasKey(CacheClient.flushingKey(deltaKey)));
+
+        System.out.println("Counter delta flush test: PASSED");
+    }
+
+    private UserInfo createTestUserInfo(Long userId, String city) {
+        return new UserInfo()
+            .setUserId(userId)
+            .setCity(city)
+            .setIntroduce("Test introduce " + userId)
+            .setGender(true)
+            .setBirthday(LocalDate.of(1990, 5, 17));
+    }
+
     private Shop createTestShop(Long id) {
         Shop shop = new Shop();
         shop.setId(id);
@@ -0,0 +1,76 @@
+package com.paulyang.ecommerce.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for FeedMerger: merged pages must match paging a single sorted set
+ * holding the union of all sources.
+ */
+public class FeedMergerTest {
+
+    @Test
+    void mergesSourcesNewestFirst() {
+        Set<ZSetOperations.TypedTuple<String>> inbox = source(tuple("5", 50), tuple("3", 30), tuple("1", 10));
+        Set<ZSetOperations.TypedTuple<String>> outbox = source(tuple("4", 40), tuple("2", 20));
+
+        List<ZSetOperations.TypedTuple<String>> page = FeedMerger.merge(Arrays.asList(inbox, outbox), 0, 4);
+
+        assertEquals(Arrays.asList("5", "4", "3", "2"), values(page));
+    }
+
+    @Test
+    void offsetSkipsEntriesSharingTheMinTimeAcrossSources() {
+        // three blogs posted in the same millisecond, split over two sources
+        Set<ZSetOperations.TypedTuple<String>> inbox = source(tuple("9", 100), tuple("7", 100));
+        Set<ZSetOperations.TypedTuple<String>> outbox = source(tuple("8", 100), tuple("6", 90));
+
+        List<ZSetOperations.TypedTuple<String>> first = FeedMerger.merge(Arrays.asList(inbox, outbox), 0, 2);
+        assertEquals(Arrays.asList("9", "8"), values(first));
+
+        // the scroll cursor of the first page is minTime=100, offset=2
+        List<ZSetOperations.TypedTuple<String>> second = FeedMerger.merge(Arrays.asList(inbox, outbox), 2, 2);
+        assertEquals(Arrays.asList("7", "6"), values(second));
+    }
+
+    @Test
+    void blogInSeveralSourcesIsReturnedOnce() {
+        Set<ZSetOperations.TypedTuple<String>> inbox = source(tuple("3", 30), tuple("2", 20));
+        Set<ZSetOperations.TypedTuple<String>> outbox = source(tuple("3", 30), tuple("1", 10));
+
+        List<ZSetOperations.TypedTuple<String>> page = FeedMerger.merge(Arrays.asList(inbox, outbox), 0, 10);
+
+        assertEquals(Arrays.asList("3", "2", "1"), values(page));
+    }
+
+    @Test
+    void emptyAndNullSourcesAreIgnored() {
+        List<Set<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>();
+        sources.add(null);
+        sources.add(source());
+        assertTrue(FeedMerger.merge(sources, 0, 2).isEmpty());
+    }
+
+    @SafeVarargs
+    private static Set<ZSetOperations.TypedTuple<String>> source(ZSetOperations.TypedTuple<String>... tuples) {
+        return new LinkedHashSet<>(Arrays.asList(tuples));
+    }
+
+    private static ZSetOperations.TypedTuple<String> tuple(String blogId, double timestamp) {
+        return new DefaultTypedTuple<>(blogId, timestamp);
+    }
+
+    private static List<String> values(List<ZSetOperations.TypedTuple<String>> tuples) {
+        return tuples.stream().map(ZSetOperations.TypedTuple::getValue).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,243 @@
+package com.paulyang.ecommerce.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the follow scripts: follow.lua keeps followers:{userId} in step with the follow set,
+ * follow_load.lua, followers_load.lua and follower_count_load.lua only install a load no follow
+ * raced with, and followers_scan.lua walks the set with a resumable cursor.
+ */
+@SpringBootTest(classes = CacheClientTest.TestApplication.class, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+public class FollowersScriptTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final String FOLLOWS_KEY = "test:follows:1";
+    private static final String COUNT_KEY = "test:followers:count:2";
+    private static final String FOLLOWERS_KEY = "test:followers:2";
+    private static final String LOADING_KEY = "test:followers:2:loading";
+    private static final String VERSION_KEY = "test:followers:ver:2";
+    private static final String WRITERS_KEY = "test:followers:ver:2:writers";
+    private static final String FOLLOWS_VERSION_KEY = "test:follows:ver:1";
+    private static final String FOLLOWS_WRITERS_KEY = "test:follows:ver:1:writers";
+
+    private final DefaultRedisScript<Long> followScript = new DefaultRedisScript<>();
+    private final DefaultRedisScript<Long> loadScript = new DefaultRedisScript<>();
+    private final DefaultRedisScript<Long> followLoadScript = new DefaultRedisScript<>();
+    private final DefaultRedisScript<Long> countLoadScript = new DefaultRedisScript<>();
+    private final DefaultRedisScript<List> scanScript = new DefaultRedisScript<>();
+
+    {
+        followScript.setLocation(new ClassPathResource("follow.lua"));
+        followScript.setResultType(Long.class);
+        loadScript.setLocation(new ClassPathResource("followers_load.lua"));
+        loadScript.setResultType(Long.class);
+        followLoadScript.setLocation(new ClassPathResource("follow_load.lua"));
+        followLoadScript.setResultType(Long.class);
+        countLoadScript.setLocation(new ClassPathResource("follower_count_load.lua"));
+        countLoadScript.setResultType(Long.class);
+        scanScript.setLocation(new ClassPathResource("followers_scan.lua"));
+        scanScript.setResultType(List.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(FOLLOWS_KEY, COUNT_KEY, FOLLOWERS_KEY, LOADING_KEY, VERSION_KEY, WRITERS_KEY,
+            FOLLOWS_VERSION_KEY, FOLLOWS_WRITERS_KEY));
+    }
+
+    private void follow(boolean isFollow) {
+        stringRedisTemplate.execute(followScript, Arrays.asList(FOLLOWS_KEY, COUNT_KEY, FOLLOWERS_KEY),
+            "2", isFollow ? "1" : "-1", "1");
+    }
+
+    private Long load(String version, String... followers) {
+        stringRedisTemplate.opsForSet().add(LOADING_KEY, followers);
+        return stringRedisTemplate.execute(loadScript, Arrays.asList(FOLLOWERS_KEY, LOADING_KEY, VERSION_KEY, WRITERS_KEY),
+            version, "0");
+    }
+
+    @Test
+    void followAndUnfollowUpdateBothSets() {
+        stringRedisTemplate.opsForValue().set(COUNT_KEY, "7");
+
+        follow(true);
+        assertTrue(stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY, "2"));
+        assertTrue(stringRedisTemplate.opsForSet().isMember(FOLLOWERS_KEY, "1"));
+        assertEquals("8", stringRedisTemplate.opsForValue().get(COUNT_KEY));
+
+        follow(false);
+        assertFalse(stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY, "2"));
+        assertFalse(stringRedisTemplate.opsForSet().isMember(FOLLOWERS_KEY, "1"));
+        assertEquals("7", stringRedisTemplate.opsForValue().get(COUNT_KEY));
+    }
+
+    private Long loadFollows(String version, String... follows) {
+        String[] args = new String[follows.length + 2];
+        args[0] = version;
+        System.arraycopy(follows, 0, args, 1, follows.length);
+        args[args.length - 1] = "0";
+        return stringRedisTemplate.execute(followLoadScript,
+            Arrays.asList(FOLLOWS_KEY, FOLLOWS_VERSION_KEY, FOLLOWS_WRITERS_KEY), (Object[]) args);
+    }
+
+    private Long loadCount(String version, String count) {
+        return stringRedisTemplate.execute(countLoadScript, Arrays.asList(COUNT_KEY, VERSION_KEY, WRITERS_KEY),
+            version, count, "60");
+    }
+
+    @Test
+    void followLoadAddsTheFollowsAndTheMarker() {
+        assertEquals(1L, loadFollows("0", "2", "3"));
+
+        assertEquals(new HashSet<>(Arrays.asList("0", "2", "3")), stringRedisTemplate.opsForSet().members(FOLLOWS_KEY));
+    }
+
+    @Test
+    void followLoadOfAUserFollowingNobodyKeepsTheMarker() {
+        assertEquals(1L, loadFollows("0"));
+
+        assertEquals(Collections.singleton("0"), stringRedisTemplate.opsForSet().members(FOLLOWS_KEY));
+    }
+
+    @Test
+    void followLoadIsDiscardedWhenAnUnfollowRaced() {
+        // the loader read 2 and 3 from tb_follow, then 2 was unfollowed before the load was written
+        stringRedisTemplate.opsForValue().set(FOLLOWS_VERSION_KEY, "2");
+        follow(false);
+
+        assertEquals(0L, loadFollows("0", "2", "3"));
+
+        assertFalse(stringRedisTemplate.hasKey(FOLLOWS_KEY));
+    }
+
+    @Test
+    void followLoadIsDiscardedWhileAFollowIsInProgress() {
+        stringRedisTemplate.opsForValue().set(FOLLOWS_VERSION_KEY, "1");
+        stringRedisTemplate.opsForValue().set(FOLLOWS_WRITERS_KEY, "1");
+
+        assertEquals(0L, loadFollows("1", "3"));
+
+        assertFalse(stringRedisTemplate.hasKey(FOLLOWS_KEY));
+    }
+
+    @Test
+    void countLoadCachesTheCountWithATtl() {
+        assertEquals(1L, loadCount("0", "7"));
+
+        assertEquals("7", stringRedisTemplate.opsForValue().get(COUNT_KEY));
+        assertTrue(stringRedisTemplate.getExpire(COUNT_KEY) > 0);
+        // later follows now keep the cached count up to date
+        follow(true);
+        assertEquals("8", stringRedisTemplate.opsForValue().get(COUNT_KEY));
+    }
+
+    @Test
+    void countLoadIsDiscardedWhenAFollowRaced() {
+        // the loader counted 7, then a follow skipped the count because it was not cached yet
+        stringRedisTemplate.opsForValue().set(VERSION_KEY, "2");
+        follow(true);
+
+        assertEquals(0L, loadCount("0", "7"));
+
+        assertFalse(stringRedisTemplate.hasKey(COUNT_KEY));
+    }
+
+    @Test
+    void countLoadIsDiscardedWhileAFollowIsInProgress() {
+        stringRedisTemplate.opsForValue().set(VERSION_KEY, "1");
+        stringRedisTemplate.opsForValue().set(WRITERS_KEY, "1");
+
+        assertEquals(0L, loadCount("1", "7"));
+
+        assertFalse(stringRedisTemplate.hasKey(COUNT_KEY));
+    }
+
+    @Test
+    void loadReplacesTheSetWhenVersionUnchanged() {
+        stringRedisTemplate.opsForSet().add(FOLLOWERS_KEY, "stale");
+
+        assertEquals(1L, load("0", "3", "4"));
+
+        assertEquals(new HashSet<>(Arrays.asList("0", "3", "4")), stringRedisTemplate.opsForSet().members(FOLLOWERS_KEY));
+        assertFalse(stringRedisTemplate.hasKey(LOADING_KEY));
+    }
+
+    @Test
+    void loadIsDiscardedWhenAFollowRaced() {
+        // a follow bumped the version (twice, once finished) after the loader read it
+        stringRedisTemplate.opsForValue().set(VERSION_KEY, "2");
+        follow(true);
+
+        assertEquals(0L, load("0", "3"));
+
+        assertEquals(Collections.singleton("1"), stringRedisTemplate.opsForSet().members(FOLLOWERS_KEY));
+        assertFalse(stringRedisTemplate.hasKey(LOADING_KEY));
+    }
+
+    @Test
+    void loadIsDiscardedWhileAFollowIsInProgress() {
+        stringRedisTemplate.opsForValue().set(VERSION_KEY, "1");
+        stringRedisTemplate.opsForValue().set(WRITERS_KEY, "1");
+
+        assertEquals(0L, load("1", "3"));
+
+        assertFalse(stringRedisTemplate.hasKey(FOLLOWERS_KEY));
+    }
+
+    @Test
+    void loadIsDiscardedWhileOverlappingFollowsLeaveAnEvenVersion() {
+        // two follows started (version 2), the loader read that, one of them finished meanwhile
+        // and the version is even again while the other is still writing
+        stringRedisTemplate.opsForValue().set(VERSION_KEY, "2");
+        stringRedisTemplate.opsForValue().set(WRITERS_KEY, "2");
+        stringRedisTemplate.opsForValue().increment(VERSION_KEY);
+        stringRedisTemplate.opsForValue().increment(VERSION_KEY);
+        stringRedisTemplate.opsForValue().decrement(WRITERS_KEY);
+
+        assertEquals(0L, load("4", "3"));
+
+        assertFalse(stringRedisTemplate.hasKey(FOLLOWERS_KEY));
+    }
+
+    @Test
+    void scanReturnsEveryFollowerAcrossSteps() {
+        Set<String> expected = new HashSet<>();
+        for (int i = 1; i <= 1000; i++) {
+            expected.add(String.valueOf(i));
+        }
+        stringRedisTemplate.opsForSet().add(FOLLOWERS_KEY, expected.toArray(new String[0]));
+
+        Set<String> seen = new HashSet<>();
+        String cursor = "0";
+        int steps = 0;
+        do {
+            List<?> step = stringRedisTemplate.execute(scanScript, Collections.singletonList(FOLLOWERS_KEY), cursor, "100");
+            cursor = step.get(0).toString();
+            for (Object member : (List<?>) step.get(1)) {
+                seen.add(member.toString());
+            }
+            steps++;
+        } while (!"0".equals(cursor));
+
+        assertEquals(expected, seen);
+        assertTrue(steps > 1);
+    }
+}
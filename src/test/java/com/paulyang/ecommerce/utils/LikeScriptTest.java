@@ -0,0 +1,162 @@
+package com.paulyang.ecommerce.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for like.lua: one call toggles the like, records the count delta and updates the hot ranking,
+ * keeping exact likers up to a threshold and a bloom filter past it. Also covers blog_liked.lua, the
+ * is-liked check over the user's recent likes and the exact likers.
+ */
+@SpringBootTest(classes = CacheClientTest.TestApplication.class, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+public class LikeScriptTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final String LIKED_KEY = "test:blog:liked:1";
+    private static final String DELTA_KEY = "test:blog:like-delta";
+    private static final String HOT_KEY = "test:blog:hot";
+    private static final String HOT_LIKES_KEY = "test:blog:hot:likes";
+    private static final String HOT_TIME_KEY = "test:blog:hot:time";
+    private static final String CACHE_KEY = "test:cache:blog:1";
+    private static final String LIKERS_KEY = "test:blog:likers:1";
+    private static final String BLOOM_KEY = "test:blog:like-bloom:1";
+    private static final String USER_LIKES_KEY = "test:user:likes:";
+    private static final int EXACT_THRESHOLD = 3;
+
+    private final DefaultRedisScript<Long> likeScript = new DefaultRedisScript<>();
+    private final DefaultRedisScript<List> likedScript = new DefaultRedisScript<>();
+
+    {
+        likeScript.setLocation(new ClassPathResource("like.lua"));
+        likeScript.setResultType(Long.class);
+        likedScript.setLocation(new ClassPathResource("blog_liked.lua"));
+        likedScript.setResultType(List.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(LIKED_KEY, DELTA_KEY, HOT_KEY, HOT_LIKES_KEY, HOT_TIME_KEY, CACHE_KEY,
+            LIKERS_KEY, BLOOM_KEY));
+        stringRedisTemplate.delete(stringRedisTemplate.keys(USER_LIKES_KEY + "*"));
+    }
+
+    private Long like(String userId) {
+        List<String> keys = Arrays.asList(LIKED_KEY, DELTA_KEY, HOT_KEY, HOT_LIKES_KEY, HOT_TIME_KEY, CACHE_KEY,
+            LIKERS_KEY, BLOOM_KEY, USER_LIKES_KEY + userId);
+        return stringRedisTemplate.execute(likeScript, keys, userId, "1", String.valueOf(System.currentTimeMillis()), "1.8",
+            String.valueOf(EXACT_THRESHOLD), "2", "1024", "1000");
+    }
+
+    private Double recentLike(String userId) {
+        return stringRedisTemplate.opsForZSet().score(USER_LIKES_KEY + userId, "1");
+    }
+
+    @Test
+    void togglesMembershipAndAccumulatesDelta() {
+        assertEquals(1L, like("10"), "First call should like");
+        assertEquals(1L, like("11"), "Another user should like");
+        assertNotNull(stringRedisTemplate.opsForZSet().score(LIKED_KEY, "10"));
+        assertEquals("2", stringRedisTemplate.opsForHash().get(DELTA_KEY, "1"));
+
+        assertEquals(0L, like("10"), "Second call should unlike");
+        assertNull(stringRedisTemplate.opsForZSet().score(LIKED_KEY, "10"));
+        assertEquals("1", stringRedisTemplate.opsForHash().get(DELTA_KEY, "1"),
+            "Delta should net out likes and unlikes");
+        assertFalse(stringRedisTemplate.hasKey(HOT_KEY), "Hot ranking should not be created by a like");
+        assertFalse(stringRedisTemplate.hasKey(CACHE_KEY), "Blog cache should not be created by a like");
+        assertTrue(recentLike("10") < 0, "Unlike should be kept in the user's recent likes");
+        assertTrue(recentLike("11") > 0, "Like should be kept in the user's recent likes");
+    }
+
+    @Test
+    void movesToBloomFilterPastExactThreshold() {
+        for (int userId = 10; userId < 10 + EXACT_THRESHOLD + 1; userId++) {
+            assertEquals(1L, like(String.valueOf(userId)));
+        }
+
+        assertFalse(stringRedisTemplate.hasKey(LIKED_KEY), "Exact likers should be dropped past the threshold");
+        assertTrue(stringRedisTemplate.hasKey(BLOOM_KEY));
+        assertEquals(Arrays.asList("10", "11"), new ArrayList<>(stringRedisTemplate.opsForZSet().range(LIKERS_KEY, 0, -1)),
+            "First likers should be kept in like order");
+        assertEquals("4", stringRedisTemplate.opsForHash().get(DELTA_KEY, "1"));
+
+        // filter tier: toggles follow the user's recent likes
+        assertEquals(0L, like("10"), "Recent liker should unlike");
+        assertEquals(Arrays.asList("11"), new ArrayList<>(stringRedisTemplate.opsForZSet().range(LIKERS_KEY, 0, -1)));
+        assertEquals(1L, like("10"), "Unliked user should like again");
+        assertEquals(1L, like("20"), "New user should like");
+        assertEquals("5", stringRedisTemplate.opsForHash().get(DELTA_KEY, "1"));
+
+        // a liker the recent likes no longer know about is caught by the bloom filter and not counted twice
+        stringRedisTemplate.delete(USER_LIKES_KEY + "11");
+        assertEquals(1L, like("11"));
+        assertEquals("5", stringRedisTemplate.opsForHash().get(DELTA_KEY, "1"));
+    }
+
+    @Test
+    void updatesLikeCountOfCachedBlogInPlace() {
+        stringRedisTemplate.opsForHash().put(CACHE_KEY, "body", "{\"id\":1}");
+        stringRedisTemplate.opsForHash().put(CACHE_KEY, "liked", "5");
+
+        like("10");
+        assertEquals("6", stringRedisTemplate.opsForHash().get(CACHE_KEY, "liked"));
+        like("10");
+        assertEquals("5", stringRedisTemplate.opsForHash().get(CACHE_KEY, "liked"));
+        assertEquals("{\"id\":1}", stringRedisTemplate.opsForHash().get(CACHE_KEY, "body"), "Body should be untouched");
+    }
+
+    @Test
+    void updatesHotScoreOfTrackedBlog() {
+        long twoHoursAgo = System.currentTimeMillis() - 2 * 3600_000L;
+        stringRedisTemplate.opsForZSet().add(HOT_TIME_KEY, "1", twoHoursAgo);
+        stringRedisTemplate.opsForZSet().add(HOT_LIKES_KEY, "1", 3);
+        stringRedisTemplate.opsForZSet().add(HOT_KEY, "1", 0);
+
+        like("10");
+
+        assertEquals(4.0, stringRedisTemplate.opsForZSet().score(HOT_LIKES_KEY, "1"));
+        // 4 likes / (2 hours + 2) ^ 1.8
+        assertEquals(4 / Math.pow(4, 1.8), stringRedisTemplate.opsForZSet().score(HOT_KEY, "1"), 1e-3);
+
+        like("10");
+        assertEquals(3.0, stringRedisTemplate.opsForZSet().score(HOT_LIKES_KEY, "1"));
+    }
+
+    @Test
+    void isLikedFallsBackToExactLikersAndBackfills() {
+        like("10");
+        like("11");
+        like("11");
+        // a like older than the user's recent likes, e.g. made before they were kept
+        stringRedisTemplate.opsForZSet().add(LIKED_KEY, "12", 1000);
+
+        assertEquals(Arrays.asList(1L, 0L, 1L), Arrays.asList(isLiked("10"), isLiked("11"), isLiked("12")));
+        assertEquals(1000.0, recentLike("12"), "Like found in the exact likers should be backfilled");
+        assertEquals(0L, isLiked("13"));
+        assertNull(recentLike("13"), "Nothing should be recorded for a user who never liked");
+
+        // the backfilled like is now toggled off by the next click
+        assertEquals(0L, like("12"));
+    }
+
+    private Long isLiked(String userId) {
+        List<?> liked = stringRedisTemplate.execute(likedScript, Arrays.asList(USER_LIKES_KEY + userId, LIKED_KEY),
+            userId, "1000", "1");
+        return (Long) liked.get(0);
+    }
+}
@@ -0,0 +1,65 @@
+package com.paulyang.ecommerce.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for login_code.lua: a matching code is consumed, anything else leaves it in place.
+ */
+@SpringBootTest(classes = CacheClientTest.TestApplication.class, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+public class LoginCodeScriptTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final String CODE_KEY = "test:login:code:13800000000";
+
+    private final DefaultRedisScript<Long> codeScript = new DefaultRedisScript<>();
+
+    {
+        codeScript.setLocation(new ClassPathResource("login_code.lua"));
+        codeScript.setResultType(Long.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(CODE_KEY);
+    }
+
+    private Long verify(String code) {
+        return stringRedisTemplate.execute(codeScript, Collections.singletonList(CODE_KEY), code);
+    }
+
+    @Test
+    void matchingCodeLogsInOnce() {
+        stringRedisTemplate.opsForValue().set(CODE_KEY, "123456");
+
+        assertEquals(1L, verify("123456"));
+        assertFalse(stringRedisTemplate.hasKey(CODE_KEY));
+        assertEquals(0L, verify("123456"));
+    }
+
+    @Test
+    void wrongCodeKeepsTheCode() {
+        stringRedisTemplate.opsForValue().set(CODE_KEY, "123456");
+
+        assertEquals(0L, verify("654321"));
+        assertEquals("123456", stringRedisTemplate.opsForValue().get(CODE_KEY));
+    }
+
+    @Test
+    void noCodeNeverMatches() {
+        assertEquals(0L, verify("123456"));
+    }
+}
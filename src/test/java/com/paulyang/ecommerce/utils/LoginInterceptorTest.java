@@ -0,0 +1,66 @@
+package com.paulyang.ecommerce.utils;
+
+import com.paulyang.ecommerce.controller.AnalyticsController;
+import com.paulyang.ecommerce.controller.ShopController;
+import com.paulyang.ecommerce.dto.UserDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the @Auth levels enforced by LoginInterceptor.
+ */
+public class LoginInterceptorTest {
+
+    private final LoginInterceptor interceptor = new LoginInterceptor(new Long[]{1L});
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    private static HandlerMethod handler(String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        return new HandlerMethod(new ShopController(), ShopController.class.getMethod(name, parameterTypes));
+    }
+
+    private int status(HandlerMethod handler, Long userId) throws Exception {
+        if (userId != null) {
+            UserDTO user = new UserDTO();
+            user.setId(userId);
+            UserHolder.saveUser(user);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        boolean passed = interceptor.preHandle(new MockHttpServletRequest(), response, handler);
+        assertEquals(passed, response.getStatus() == 200);
+        return response.getStatus();
+    }
+
+    @Test
+    void adminHandlerRejectsAnonymousAndOtherUsers() throws Exception {
+        HandlerMethod deleteShop = handler("deleteShop", Long.class);
+
+        assertEquals(401, status(deleteShop, null));
+        assertEquals(403, status(deleteShop, 2L));
+        assertEquals(200, status(deleteShop, 1L));
+    }
+
+    @Test
+    void adminControllerAppliesToItsHandlers() throws Exception {
+        HandlerMethod export = new HandlerMethod(new AnalyticsController(),
+            AnalyticsController.class.getMethod("exportDay", String.class, LocalDate.class));
+
+        assertEquals(403, status(export, 2L));
+        assertEquals(200, status(export, 1L));
+    }
+
+    @Test
+    void handlerOfAnOpenControllerNeedsNoUser() throws Exception {
+        assertEquals(200, status(handler("queryShopById", Long.class), null));
+    }
+}
@@ -0,0 +1,105 @@
+package com.paulyang.ecommerce.utils;
+
+import com.paulyang.ecommerce.dto.UserDTO;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for RequestContext and ContextExecutorService: tasks see the user and trace id of
+ * the request that submitted them, and pooled threads are left without a context.
+ */
+public class RequestContextTest {
+
+    private static final ExecutorService EXECUTOR = new ContextExecutorService(Executors.newFixedThreadPool(2));
+
+    @AfterEach
+    void tearDown() {
+        RequestContext.clear();
+    }
+
+    @AfterAll
+    static void shutdown() {
+        EXECUTOR.shutdownNow();
+    }
+
+    private static UserDTO user(long id) {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        user.setNickName("user_" + id);
+        return user;
+    }
+
+    @Test
+    void submittedTaskSeesTheRequestAndLeavesNothingBehind() throws Exception {
+        UserDTO user = user(7L);
+        RequestContext.set(RequestContext.of("trace-1", () -> user));
+
+        Future<String> seen = EXECUTOR.submit(() -> UserHolder.getUser().getId() + "@" + MDC.get(RequestContext.TRACE_ID));
+        assertEquals("7@trace-1", seen.get(5, TimeUnit.SECONDS));
+
+        RequestContext.clear();
+        Future<Boolean> cleared = EXECUTOR.submit(() -> UserHolder.getUser() == null && MDC.get(RequestContext.TRACE_ID) == null);
+        assertTrue(cleared.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void completableFutureStagesSeeTheRequest() throws Exception {
+        RequestContext.set(RequestContext.of("trace-2", () -> user(8L)));
+
+        String seen = CompletableFuture.supplyAsync(() -> UserHolder.getUser().getId(), EXECUTOR)
+            .thenApplyAsync(id -> id + "@" + RequestContext.current().getTraceId(), EXECUTOR)
+            .get(5, TimeUnit.SECONDS);
+
+        assertEquals("8@trace-2", seen);
+    }
+
+    @Test
+    void taskRunOnTheCallingThreadRestoresItsContext() {
+        RequestContext.set(RequestContext.of("trace-3", () -> user(9L)));
+        Runnable task = RequestContext.wrapRunnable(() -> assertEquals(9L, UserHolder.getUser().getId()));
+        RequestContext.set(RequestContext.of("trace-4", () -> user(10L)));
+
+        task.run();
+
+        assertEquals("trace-4", RequestContext.current().getTraceId());
+        assertEquals(10L, UserHolder.getUser().getId());
+    }
+
+    @Test
+    void userIsResolvedOnceAcrossThreads() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch resolving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RequestContext.set(RequestContext.of("trace-5", () -> {
+            calls.incrementAndGet();
+            resolving.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return user(11L);
+        }));
+
+        Future<UserDTO> first = EXECUTOR.submit(UserHolder::getUser);
+        assertTrue(resolving.await(5, TimeUnit.SECONDS));
+        Future<UserDTO> second = EXECUTOR.submit(UserHolder::getUser);
+        release.countDown();
+
+        assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        assertSame(first.get(), UserHolder.getUser());
+        assertEquals(1, calls.get());
+    }
+}
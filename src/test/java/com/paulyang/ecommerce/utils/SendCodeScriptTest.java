@@ -0,0 +1,89 @@
+package com.paulyang.ecommerce.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for send_code.lua: a valid code is never replaced, and the phone and IP windows each
+ * cap the codes sent until their oldest send slides out.
+ */
+@SpringBootTest(classes = CacheClientTest.TestApplication.class, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+public class SendCodeScriptTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final String CODE_KEY = "test:login:code:13800000000";
+    private static final String OTHER_CODE_KEY = "test:login:code:13900000000";
+    private static final String PHONE_KEY = "test:limit:code:phone:13800000000";
+    private static final String OTHER_PHONE_KEY = "test:limit:code:phone:13900000000";
+    private static final String IP_KEY = "test:limit:code:ip:10.0.0.1";
+
+    private static final long WINDOW = 60000;
+    private static final long CODE_TTL = 120000;
+
+    private final DefaultRedisScript<List> sendScript = new DefaultRedisScript<>();
+
+    {
+        sendScript.setLocation(new ClassPathResource("send_code.lua"));
+        sendScript.setResultType(List.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(CODE_KEY, OTHER_CODE_KEY, PHONE_KEY, OTHER_PHONE_KEY, IP_KEY));
+    }
+
+    private List<?> send(String codeKey, String phoneKey, long now, String code, int phoneMax, int ipMax) {
+        return stringRedisTemplate.execute(sendScript, Arrays.asList(codeKey, phoneKey, IP_KEY),
+                String.valueOf(now), String.valueOf(WINDOW), String.valueOf(phoneMax), String.valueOf(ipMax),
+                code, String.valueOf(CODE_TTL));
+    }
+
+    @Test
+    void resendWhileCodeIsValidKeepsTheCode() {
+        assertEquals(Arrays.asList(0L, CODE_TTL), send(CODE_KEY, PHONE_KEY, 1000, "111111", 5, 20));
+
+        List<?> resent = send(CODE_KEY, PHONE_KEY, 2000, "222222", 5, 20);
+
+        assertEquals(1L, resent.get(0));
+        assertTrue((Long) resent.get(1) > 0 && (Long) resent.get(1) <= CODE_TTL);
+        assertEquals("111111", stringRedisTemplate.opsForValue().get(CODE_KEY));
+        assertEquals(1L, stringRedisTemplate.opsForZSet().zCard(PHONE_KEY));
+    }
+
+    @Test
+    void phoneLimitHoldsUntilTheOldestSendSlidesOut() {
+        assertEquals(0L, send(CODE_KEY, PHONE_KEY, 1000, "111111", 2, 20).get(0));
+        stringRedisTemplate.delete(CODE_KEY);
+        assertEquals(0L, send(CODE_KEY, PHONE_KEY, 5000, "222222", 2, 20).get(0));
+        stringRedisTemplate.delete(CODE_KEY);
+
+        assertEquals(Arrays.asList(2L, WINDOW - 9000), send(CODE_KEY, PHONE_KEY, 10000, "333333", 2, 20));
+        assertFalse(stringRedisTemplate.hasKey(CODE_KEY));
+
+        assertEquals(0L, send(CODE_KEY, PHONE_KEY, 1000 + WINDOW, "444444", 2, 20).get(0));
+        assertEquals("444444", stringRedisTemplate.opsForValue().get(CODE_KEY));
+    }
+
+    @Test
+    void ipLimitCoversEveryPhone() {
+        assertEquals(0L, send(CODE_KEY, PHONE_KEY, 1000, "111111", 5, 1).get(0));
+
+        assertEquals(Arrays.asList(3L, WINDOW - 1000), send(OTHER_CODE_KEY, OTHER_PHONE_KEY, 2000, "222222", 5, 1));
+        assertFalse(stringRedisTemplate.hasKey(OTHER_CODE_KEY));
+        assertFalse(stringRedisTemplate.hasKey(OTHER_PHONE_KEY));
+    }
+}
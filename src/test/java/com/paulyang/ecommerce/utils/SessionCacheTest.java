@@ -0,0 +1,140 @@
+package com.paulyang.ecommerce.utils;
+
+import com.paulyang.ecommerce.config.RedisListenerConfig;
+import com.paulyang.ecommerce.dto.UserDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static com.paulyang.ecommerce.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for SessionCache: sessions are served from memory, logouts reach every instance and
+ * the Redis TTL is only extended once it runs low.
+ */
+@SpringBootTest(classes = {CacheClientTest.TestApplication.class, RedisListenerConfig.class, SessionCache.class},
+    webEnvironment = SpringBootTest.WebEnvironment.NONE,
+    properties = {"app.session.local-ttl=60000", "app.session.refresh-after=60"})
+@ActiveProfiles("test")
+public class SessionCacheTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SessionCache sessionCache;
+
+    private static final String TOKEN = "test-session-token";
+
+    @AfterEach
+    void tearDown() {
+        sessionCache.invalidate(TOKEN);
+        stringRedisTemplate.delete(Arrays.asList(LOGIN_USER_KEY + TOKEN));
+    }
+
+    private void login(long ttlMinutes) {
+        Map<String, String> userMap = new HashMap<>();
+        userMap.put("id", "7");
+        userMap.put("nickName", "user_7");
+        userMap.put("icon", "");
+        stringRedisTemplate.opsForHash().putAll(LOGIN_USER_KEY + TOKEN, userMap);
+        stringRedisTemplate.expire(LOGIN_USER_KEY + TOKEN, ttlMinutes, TimeUnit.MINUTES);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    void sessionIsServedFromMemoryAfterFirstRead() {
+        login(LOGIN_USER_TTL);
+
+        UserDTO user = sessionCache.get(TOKEN);
+        assertEquals(7L, user.getId());
+        assertEquals("user_7", user.getNickName());
+
+        // removed behind the cache's back, still served until the local TTL
+        stringRedisTemplate.delete(LOGIN_USER_KEY + TOKEN);
+        assertEquals(7L, sessionCache.get(TOKEN).getId());
+    }
+
+    @Test
+    void unknownTokenHasNoUser() {
+        assertNull(sessionCache.get(TOKEN));
+    }
+
+    @Test
+    void invalidateRemovesTheSession() {
+        login(LOGIN_USER_TTL);
+        assertNotNull(sessionCache.get(TOKEN));
+
+        sessionCache.invalidate(TOKEN);
+
+        assertFalse(stringRedisTemplate.hasKey(LOGIN_USER_KEY + TOKEN));
+        assertNull(sessionCache.get(TOKEN));
+    }
+
+    @Test
+    void invalidationFromAnotherInstanceEvictsTheLocalCopy() throws InterruptedException {
+        login(LOGIN_USER_TTL);
+        assertNotNull(sessionCache.get(TOKEN));
+
+        // what invalidate does on another instance
+        stringRedisTemplate.delete(LOGIN_USER_KEY + TOKEN);
+        stringRedisTemplate.convertAndSend(SESSION_INVALIDATE_CHANNEL, TOKEN);
+
+        await(() -> sessionCache.get(TOKEN) == null);
+    }
+
+    @Test
+    void ttlIsOnlyRefreshedOnceItRunsLow() throws InterruptedException {
+        long fullTtl = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        long lowTtl = fullTtl - TimeUnit.MINUTES.toSeconds(120);
+
+        // fresh session, no refresh
+        login(LOGIN_USER_TTL - 30);
+        sessionCache.get(TOKEN);
+        Thread.sleep(200);
+        assertTrue(stringRedisTemplate.getExpire(LOGIN_USER_KEY + TOKEN) < fullTtl - 60);
+
+        // less than LOGIN_USER_TTL - refresh-after left, refreshed in the background
+        sessionCache.invalidate(TOKEN);
+        login(TimeUnit.SECONDS.toMinutes(lowTtl));
+        sessionCache.get(TOKEN);
+        await(() -> stringRedisTemplate.getExpire(LOGIN_USER_KEY + TOKEN) > fullTtl - 60);
+    }
+
+    @Test
+    void updateReplacesTheCachedUserButNeverRecreatesASession() {
+        login(LOGIN_USER_TTL);
+        assertEquals("user_7", sessionCache.get(TOKEN).getNickName());
+
+        UserDTO edited = new UserDTO();
+        edited.setId(7L);
+        edited.setNickName("renamed");
+        edited.setIcon("/imgs/7.png");
+        sessionCache.update(TOKEN, edited);
+
+        assertEquals("renamed", sessionCache.get(TOKEN).getNickName());
+        assertEquals("/imgs/7.png", stringRedisTemplate.opsForHash().get(LOGIN_USER_KEY + TOKEN, "icon"));
+        assertTrue(stringRedisTemplate.getExpire(LOGIN_USER_KEY + TOKEN) > 0, "TTL should be kept");
+
+        // logged out meanwhile, the update must not bring the session back
+        sessionCache.invalidate(TOKEN);
+        sessionCache.update(TOKEN, edited);
+        assertFalse(stringRedisTemplate.hasKey(LOGIN_USER_KEY + TOKEN));
+        assertNull(sessionCache.get(TOKEN));
+    }
+}
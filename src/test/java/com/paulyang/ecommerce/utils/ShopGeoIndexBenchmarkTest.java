@@ -0,0 +1,100 @@
+package com.paulyang.ecommerce.utils;
+
+import com.paulyang.ecommerce.entity.Shop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Benchmark of the in-process ShopGeoIndex against the Redis GEOSEARCH path
+ * used by ShopServiceImpl.queryShopByType, at 100k shops of one type.
+ * Prints timings only; no timing assertion (see CacheClientTest quarantine).
+ */
+@SpringBootTest(classes = CacheClientTest.TestApplication.class, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+public class ShopGeoIndexBenchmarkTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final String TEST_GEO_KEY = "test:geo:bench";
+    private static final int SHOP_COUNT = 100_000;
+    private static final int QUERIES = 200;
+    private static final int PAGE = 10;
+    private static final int PAGE_SIZE = SystemConstants.DEFAULT_PAGE_SIZE;
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(TEST_GEO_KEY);
+    }
+
+    @Test
+    void benchmarkDeepPageAgainstRedisGeo() {
+        Random random = new Random(7);
+        ShopGeoIndex index = new ShopGeoIndex(0.01);
+        List<RedisGeoCommands.GeoLocation<String>> batch = new ArrayList<>();
+        for (long id = 1; id <= SHOP_COUNT; id++) {
+            Shop shop = new Shop();
+            shop.setId(id);
+            shop.setTypeId(1L);
+            shop.setX(120.0 + random.nextDouble() * 0.5);
+            shop.setY(30.0 + random.nextDouble() * 0.5);
+            index.put(shop);
+            batch.add(new RedisGeoCommands.GeoLocation<>(String.valueOf(id), new Point(shop.getX(), shop.getY())));
+            if (batch.size() == 5000) {
+                stringRedisTemplate.opsForGeo().add(TEST_GEO_KEY, batch);
+                batch.clear();
+            }
+        }
+
+        double[][] centers = new double[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            centers[i] = new double[]{120.1 + random.nextDouble() * 0.3, 30.1 + random.nextDouble() * 0.3};
+        }
+        int from = (PAGE - 1) * PAGE_SIZE;
+        int end = PAGE * PAGE_SIZE;
+
+        long redisStart = System.nanoTime();
+        List<Long> redisLast = new ArrayList<>();
+        for (double[] c : centers) {
+            GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                    TEST_GEO_KEY,
+                    GeoReference.fromCoordinate(c[0], c[1]),
+                    new Distance(SystemConstants.SHOP_NEARBY_RADIUS),
+                    RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(end));
+            redisLast.clear();
+            results.getContent().stream().skip(from)
+                    .forEach(r -> redisLast.add(Long.valueOf(r.getContent().getName())));
+        }
+        long redisNanos = System.nanoTime() - redisStart;
+
+        long indexStart = System.nanoTime();
+        List<Long> indexLast = new ArrayList<>();
+        for (double[] c : centers) {
+            List<ShopGeoIndex.Hit> hits = index.search(1L, c[0], c[1], SystemConstants.SHOP_NEARBY_RADIUS, null, null, end);
+            indexLast.clear();
+            hits.stream().skip(from).forEach(h -> indexLast.add(h.getId()));
+        }
+        long indexNanos = System.nanoTime() - indexStart;
+
+        assertEquals(PAGE_SIZE, indexLast.size(), "Index should fill the page");
+        assertEquals(redisLast.size(), indexLast.size(), "Both paths should return a full page");
+
+        System.out.printf("Geo page %d over %d shops: redis %.3f ms/query, index %.3f ms/query%n",
+                PAGE, SHOP_COUNT, redisNanos / 1e6 / QUERIES, indexNanos / 1e6 / QUERIES);
+    }
+}
@@ -0,0 +1,145 @@
+package com.paulyang.ecommerce.utils;
+
+import com.paulyang.ecommerce.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the in-process ShopGeoIndex
+ * Compares grid search against a brute-force scan and checks cursor paging
+ */
+public class ShopGeoIndexTest {
+
+    private static final double CENTER_X = 120.15;
+    private static final double CENTER_Y = 30.28;
+    private static final double RADIUS = 5000;
+
+    private ShopGeoIndex index;
+    private List<Shop> shops;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopGeoIndex(0.01);
+        shops = new ArrayList<>();
+        Random random = new Random(42);
+        for (long id = 1; id <= 5000; id++) {
+            Shop shop = new Shop();
+            shop.setId(id);
+            shop.setTypeId(id % 2 + 1);
+            shop.setX(CENTER_X + (random.nextDouble() - 0.5) * 0.2);
+            shop.setY(CENTER_Y + (random.nextDouble() - 0.5) * 0.2);
+            shops.add(shop);
+        }
+        index.putAll(shops);
+    }
+
+    @Test
+    void testSearchMatchesBruteForce() {
+        List<ShopGeoIndex.Hit> hits = index.search(1L, CENTER_X, CENTER_Y, RADIUS, null, null, 50);
+
+        List<Long> expected = bruteForce(1L, CENTER_X, CENTER_Y).stream()
+                .limit(50).map(Shop::getId).collect(Collectors.toList());
+        List<Long> actual = hits.stream().map(ShopGeoIndex.Hit::getId).collect(Collectors.toList());
+        assertEquals(expected, actual, "Grid search should return the k nearest shops in order");
+    }
+
+    @Test
+    void testCursorPagingWalksAllResults() {
+        List<Long> expected = bruteForce(2L, CENTER_X, CENTER_Y).stream()
+                .map(Shop::getId).collect(Collectors.toList());
+
+        List<Long> paged = new ArrayList<>();
+        Double afterDistance = null;
+        Long afterId = null;
+        while (true) {
+            List<ShopGeoIndex.Hit> page = index.search(2L, CENTER_X, CENTER_Y, RADIUS, afterDistance, afterId, 7);
+            page.forEach(hit -> paged.add(hit.getId()));
+            if (page.size() < 7) {
+                break;
+            }
+            ShopGeoIndex.Hit last = page.get(page.size() - 1);
+            afterDistance = last.getDistance();
+            afterId = last.getId();
+        }
+        assertEquals(expected, paged, "Cursor pages should concatenate to the full sorted result");
+    }
+
+    @Test
+    void testMovedAndRemovedShops() {
+        Shop moved = new Shop();
+        moved.setId(1L);
+        moved.setTypeId(1L);
+        moved.setX(CENTER_X);
+        moved.setY(CENTER_Y);
+        index.put(moved);
+
+        List<ShopGeoIndex.Hit> hits = index.search(1L, CENTER_X, CENTER_Y, RADIUS, null, null, 1);
+        assertEquals(1L, hits.get(0).getId(), "Moved shop should be found at its new position");
+        assertEquals(0.0, hits.get(0).getDistance(), 1e-6);
+
+        index.remove(1L);
+        hits = index.search(1L, CENTER_X, CENTER_Y, RADIUS, null, null, 1);
+        assertNotEquals(1L, hits.get(0).getId(), "Removed shop should no longer be returned");
+        assertEquals(shops.size() - 1, index.size());
+    }
+
+    @Test
+    void testConcurrentMovesLeaveOneEntryPerShop() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch latch = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            long seed = t;
+            executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 2000; i++) {
+                    Shop shop = new Shop();
+                    shop.setId(1L);
+                    shop.setTypeId(1L);
+                    shop.setX(CENTER_X + (random.nextDouble() - 0.5) * 0.02);
+                    shop.setY(CENTER_Y + (random.nextDouble() - 0.5) * 0.02);
+                    if (i % 10 == 0) {
+                        index.remove(1L);
+                    } else {
+                        index.put(shop);
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        Shop settled = new Shop();
+        settled.setId(1L);
+        settled.setTypeId(1L);
+        settled.setX(CENTER_X);
+        settled.setY(CENTER_Y);
+        index.put(settled);
+
+        List<ShopGeoIndex.Hit> hits = index.search(1L, CENTER_X, CENTER_Y, RADIUS * 10, null, null, shops.size());
+        long copies = hits.stream().filter(h -> h.getId() == 1L).count();
+        assertEquals(1, copies, "A shop moved concurrently must not leave stale entries in the grid");
+        assertEquals(shops.size() / 2 + 1, hits.size(), "Every shop of the type should be found exactly once");
+    }
+
+    private List<Shop> bruteForce(Long typeId, double x, double y) {
+        return shops.stream()
+                .filter(s -> s.getTypeId().equals(typeId))
+                .filter(s -> ShopGeoIndex.distance(x, y, s.getX(), s.getY()) <= RADIUS)
+                .sorted(Comparator.<Shop>comparingDouble(s -> ShopGeoIndex.distance(x, y, s.getX(), s.getY()))
+                        .thenComparing(Shop::getId))
+                .collect(Collectors.toList());
+    }
+}
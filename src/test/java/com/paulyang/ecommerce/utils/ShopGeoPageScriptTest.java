@@ -0,0 +1,84 @@
+package com.paulyang.ecommerce.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for shop_geo_page.lua: the result set is stored with its TTL in the same call and
+ * later pages are read from it.
+ */
+@SpringBootTest(classes = CacheClientTest.TestApplication.class, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+public class ShopGeoPageScriptTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final String GEO_KEY = "test:shop:geo:1";
+    private static final String RESULT_KEY = "test:cache:shop:geo:1:120.149:30.32:5000";
+
+    private final DefaultRedisScript<List> pageScript = new DefaultRedisScript<>();
+
+    {
+        pageScript.setLocation(new ClassPathResource("shop_geo_page.lua"));
+        pageScript.setResultType(List.class);
+    }
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate.opsForGeo().add(GEO_KEY, new Point(120.149, 30.321), "1");
+        stringRedisTemplate.opsForGeo().add(GEO_KEY, new Point(120.149, 30.33), "2");
+        stringRedisTemplate.opsForGeo().add(GEO_KEY, new Point(120.149, 30.325), "3");
+        stringRedisTemplate.opsForGeo().add(GEO_KEY, new Point(121.5, 31.2), "4");
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(GEO_KEY, RESULT_KEY));
+    }
+
+    private List<?> page(String geoKey, int from, int to) {
+        return stringRedisTemplate.execute(pageScript, Arrays.asList(geoKey, RESULT_KEY),
+                "120.149", "30.32", "5000", "60", String.valueOf(from), String.valueOf(to));
+    }
+
+    @Test
+    void firstPageStoresTheResultSetWithItsTtl() {
+        List<?> first = page(GEO_KEY, 0, 1);
+
+        assertEquals(Arrays.asList("1", "3"), Arrays.asList(first.get(0), first.get(2)));
+        assertEquals(3L, stringRedisTemplate.opsForZSet().zCard(RESULT_KEY));
+        Long ttl = stringRedisTemplate.getExpire(RESULT_KEY);
+        assertTrue(ttl != null && ttl > 0 && ttl <= 60);
+    }
+
+    @Test
+    void laterPagesReadTheStoredResultSet() {
+        page(GEO_KEY, 0, 1);
+        stringRedisTemplate.delete(GEO_KEY);
+
+        List<?> second = page(GEO_KEY, 2, 3);
+
+        assertEquals(2, second.size());
+        assertEquals("2", second.get(0));
+    }
+
+    @Test
+    void noShopInRangeStoresNothing() {
+        assertTrue(page("test:shop:geo:missing", 0, 1).isEmpty());
+        assertFalse(stringRedisTemplate.hasKey(RESULT_KEY));
+    }
+}
@@ -0,0 +1,139 @@
+package com.paulyang.ecommerce.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the shop index load scripts: shop_geo_load.lua and shop_rank_load.lua only publish
+ * a load no shop write raced with, and a type without shops still gets rankings holding the
+ * loaded marker.
+ */
+@SpringBootTest(classes = CacheClientTest.TestApplication.class, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+public class ShopIndexScriptTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final String GEO_KEY = "test:shop:geo:1";
+    private static final String GEO_LOADING_KEY = "test:shop:geo:1:loading:run";
+    private static final String GEO_VERSION_KEY = "test:shop:geo:ver:1";
+    private static final String COMMENTS_KEY = "test:shop:rank:comments:1";
+    private static final String SCORE_KEY = "test:shop:rank:score:1";
+    private static final String COMMENTS_LOADING_KEY = "test:shop:rank:comments:1:loading:run";
+    private static final String SCORE_LOADING_KEY = "test:shop:rank:score:1:loading:run";
+    private static final String RANK_VERSION_KEY = "test:shop:rank:ver:1";
+
+    private final DefaultRedisScript<Long> geoLoadScript = new DefaultRedisScript<>();
+    private final DefaultRedisScript<Long> rankScript = new DefaultRedisScript<>();
+    private final DefaultRedisScript<Long> rankLoadScript = new DefaultRedisScript<>();
+
+    {
+        geoLoadScript.setLocation(new ClassPathResource("shop_geo_load.lua"));
+        geoLoadScript.setResultType(Long.class);
+        rankScript.setLocation(new ClassPathResource("shop_rank.lua"));
+        rankScript.setResultType(Long.class);
+        rankLoadScript.setLocation(new ClassPathResource("shop_rank_load.lua"));
+        rankLoadScript.setResultType(Long.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(GEO_KEY, GEO_LOADING_KEY, GEO_VERSION_KEY, COMMENTS_KEY, SCORE_KEY,
+            COMMENTS_LOADING_KEY, SCORE_LOADING_KEY, RANK_VERSION_KEY));
+    }
+
+    private Long loadGeo(String version, String... shopIds) {
+        for (String shopId : shopIds) {
+            stringRedisTemplate.opsForGeo().add(GEO_LOADING_KEY, new Point(120.15, 30.28), shopId);
+        }
+        return stringRedisTemplate.execute(geoLoadScript, Arrays.asList(GEO_KEY, GEO_LOADING_KEY, GEO_VERSION_KEY),
+            version);
+    }
+
+    private Long loadRank(String version, String... shopIds) {
+        for (String shopId : shopIds) {
+            stringRedisTemplate.opsForZSet().add(COMMENTS_LOADING_KEY, shopId, Double.parseDouble(shopId));
+            stringRedisTemplate.opsForZSet().add(SCORE_LOADING_KEY, shopId, Double.parseDouble(shopId));
+        }
+        return stringRedisTemplate.execute(rankLoadScript,
+            Arrays.asList(COMMENTS_KEY, SCORE_KEY, COMMENTS_LOADING_KEY, SCORE_LOADING_KEY, RANK_VERSION_KEY),
+            version, "0");
+    }
+
+    @Test
+    void geoLoadReplacesTheSetWhenVersionUnchanged() {
+        stringRedisTemplate.opsForGeo().add(GEO_KEY, new Point(120.15, 30.28), "stale");
+
+        assertEquals(1L, loadGeo("0", "3", "4"));
+
+        assertEquals(new HashSet<>(Arrays.asList("3", "4")), stringRedisTemplate.opsForZSet().range(GEO_KEY, 0, -1));
+        assertFalse(stringRedisTemplate.hasKey(GEO_LOADING_KEY));
+    }
+
+    @Test
+    void geoLoadIsDiscardedWhenAShopWriteRaced() {
+        // a shop update bumped the version and moved shop 5 into the live set after the loader read it
+        stringRedisTemplate.opsForValue().increment(GEO_VERSION_KEY);
+        stringRedisTemplate.opsForGeo().add(GEO_KEY, new Point(120.15, 30.28), "5");
+
+        assertEquals(0L, loadGeo("0", "3"));
+
+        assertEquals(Collections.singleton("5"), stringRedisTemplate.opsForZSet().range(GEO_KEY, 0, -1));
+        assertFalse(stringRedisTemplate.hasKey(GEO_LOADING_KEY));
+    }
+
+    @Test
+    void geoLoadOfATypeWithoutShopsDeletesTheSet() {
+        stringRedisTemplate.opsForGeo().add(GEO_KEY, new Point(120.15, 30.28), "stale");
+
+        assertEquals(1L, loadGeo("0"));
+
+        assertFalse(stringRedisTemplate.hasKey(GEO_KEY));
+    }
+
+    @Test
+    void rankLoadPublishesBothRankingsWithTheMarkerLast() {
+        assertEquals(1L, loadRank("0", "3", "4"));
+
+        assertEquals(Arrays.asList("4", "3", "0"), new ArrayList<>(stringRedisTemplate.opsForZSet().reverseRange(COMMENTS_KEY, 0, -1)));
+        assertEquals(Arrays.asList("4", "3", "0"), new ArrayList<>(stringRedisTemplate.opsForZSet().reverseRange(SCORE_KEY, 0, -1)));
+        assertFalse(stringRedisTemplate.hasKey(COMMENTS_LOADING_KEY));
+        assertFalse(stringRedisTemplate.hasKey(SCORE_LOADING_KEY));
+    }
+
+    @Test
+    void rankLoadOfATypeWithoutShopsKeepsTheMarker() {
+        assertEquals(1L, loadRank("0"));
+
+        assertEquals(Collections.singleton("0"), stringRedisTemplate.opsForZSet().range(COMMENTS_KEY, 0, -1));
+        // later writes of the type now land in the built ranking
+        assertEquals(2L, stringRedisTemplate.execute(rankScript, Arrays.asList(COMMENTS_KEY, SCORE_KEY), "7", "12", "4.5"));
+        assertEquals(12.0, stringRedisTemplate.opsForZSet().score(COMMENTS_KEY, "7"));
+    }
+
+    @Test
+    void rankLoadIsDiscardedWhenAShopWriteRaced() {
+        stringRedisTemplate.opsForValue().increment(RANK_VERSION_KEY);
+
+        assertEquals(0L, loadRank("0", "3"));
+
+        assertFalse(stringRedisTemplate.hasKey(COMMENTS_KEY));
+        assertFalse(stringRedisTemplate.hasKey(COMMENTS_LOADING_KEY));
+        assertFalse(stringRedisTemplate.hasKey(SCORE_LOADING_KEY));
+    }
+}
@@ -0,0 +1,74 @@
+package com.paulyang.ecommerce.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SignBits, with months written as day 1 first, the way BITFIELD reads them.
+ */
+public class SignBitsTest {
+
+    /**
+     * @param days '1' for a signed day, day 1 first
+     */
+    private static long month(String days) {
+        return Long.parseLong(days, 2);
+    }
+
+    @Test
+    void runsWithinAMonth() {
+        long bits = month("1101110011");
+
+        assertEquals(7, SignBits.count(bits));
+        assertEquals(2, SignBits.trailingRun(bits));
+        assertEquals(2, SignBits.leadingRun(bits, 10));
+        assertEquals(3, SignBits.longestRun(bits));
+    }
+
+    @Test
+    void emptyAndFullMonths() {
+        assertEquals(0, SignBits.longestRun(0));
+        assertEquals(0, SignBits.trailingRun(0));
+        assertEquals(0, SignBits.leadingRun(0, 31));
+
+        long full = month("1111111111111111111111111111111");
+        assertEquals(31, SignBits.count(full));
+        assertEquals(31, SignBits.trailingRun(full));
+        assertEquals(31, SignBits.leadingRun(full, 31));
+        assertEquals(31, SignBits.longestRun(full));
+    }
+
+    @Test
+    void leadingRunIgnoresMissingLeadingDays() {
+        // day 1 not signed: the word has fewer significant bits than days
+        assertEquals(0, SignBits.leadingRun(month("0111"), 4));
+        assertEquals(3, SignBits.leadingRun(month("1110"), 4));
+    }
+
+    @Test
+    void calendarPutsDayOneInBitZero() {
+        assertEquals(0b1010_0011, SignBits.calendar(month("11000101"), 8));
+        assertEquals(0, SignBits.calendar(0, 30));
+    }
+
+    @Test
+    void currentStreakCarriesOverMonthBoundaries() {
+        long[] months = {month("0011"), month("1111"), month("111")};
+        int[] days = {4, 4, 3};
+
+        assertEquals(9, SignBits.currentStreak(months, days));
+        assertEquals(0, SignBits.currentStreak(new long[]{month("1111"), month("110")}, new int[]{4, 3}));
+    }
+
+    @Test
+    void longestStreakCrossesMonthBoundaries() {
+        long[] months = {month("1110111"), month("1100000"), month("1111011")};
+        int[] days = {7, 7, 7};
+
+        assertEquals(5, SignBits.longestStreak(months, days));
+        assertEquals(4, SignBits.longestStreak(new long[]{month("0001111"), month("0000000")}, new int[]{7, 7}));
+        assertEquals(15, SignBits.longestStreak(new long[]{month("0000111"), month("1111111"), month("1111100")},
+            new int[]{7, 7, 7}));
+    }
+}
@@ -0,0 +1,70 @@
+package com.paulyang.ecommerce.utils;
+
+import com.paulyang.ecommerce.dto.UserDTO;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SignedTokenCodec: a token verifies to the claims it was signed with, and any
+ * change to it, another secret or expiry makes it invalid.
+ */
+public class SignedTokenCodecTest {
+
+    private final SignedTokenCodec codec = new SignedTokenCodec("test-secret");
+
+    private static SignedTokenCodec.Claims claims(long expiresAt) {
+        UserDTO user = new UserDTO();
+        user.setId(7L);
+        user.setNickName("user_7");
+        user.setIcon("/imgs/icons/7.jpg");
+        SignedTokenCodec.Claims claims = new SignedTokenCodec.Claims();
+        claims.setUser(user);
+        claims.setTokenId("jti-1");
+        claims.setExpiresAt(expiresAt);
+        return claims;
+    }
+
+    @Test
+    void signedTokenVerifiesToItsClaims() {
+        String token = codec.sign(claims(2000));
+
+        SignedTokenCodec.Claims verified = codec.verify(token, 1000);
+
+        assertEquals(claims(2000), verified);
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        String token = codec.sign(claims(2000));
+
+        assertNull(codec.verify(token, 2000));
+    }
+
+    @Test
+    void tokenSignedWithAnotherSecretIsRejected() {
+        String token = new SignedTokenCodec("other-secret").sign(claims(2000));
+
+        assertNull(codec.verify(token, 1000));
+    }
+
+    @Test
+    void tamperedClaimsAreRejected() {
+        String token = codec.sign(claims(2000));
+        String signature = token.substring(token.indexOf('.'));
+        String forged = Base64.getUrlEncoder().withoutPadding().encodeToString(
+            "{\"id\":1,\"jti\":\"jti-1\",\"exp\":2000}".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(codec.verify(forged + signature, 1000));
+    }
+
+    @Test
+    void malformedTokensAreRejected() {
+        assertNull(codec.verify("a3f1c0de9b2e4c7f8a6d5b4c3e2f1a0b", 1000));
+        assertNull(codec.verify("not.a.token", 1000));
+        assertNull(codec.verify("%%%.%%%", 1000));
+    }
+}
@@ -0,0 +1,58 @@
+package com.paulyang.ecommerce.utils;
+
+import com.paulyang.ecommerce.dto.UserDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the lazy session resolution of UserHolder.
+ */
+public class UserHolderTest {
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void resolverRunsOnceOnFirstGetUser() {
+        AtomicInteger calls = new AtomicInteger();
+        UserDTO user = new UserDTO();
+        user.setId(7L);
+        UserHolder.saveUserResolver(() -> {
+            calls.incrementAndGet();
+            return user;
+        });
+        assertEquals(0, calls.get());
+
+        assertSame(user, UserHolder.getUser());
+        assertSame(user, UserHolder.getUser());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void unknownSessionIsResolvedOnceToNull() {
+        AtomicInteger calls = new AtomicInteger();
+        UserHolder.saveUserResolver(() -> {
+            calls.incrementAndGet();
+            return null;
+        });
+
+        assertNull(UserHolder.getUser());
+        assertNull(UserHolder.getUser());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void removeUserDropsAnUnusedResolver() {
+        UserHolder.saveUserResolver(() -> fail("resolved after the request ended"));
+
+        UserHolder.removeUser();
+
+        assertNull(UserHolder.getUser());
+    }
+}